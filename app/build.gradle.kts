@@ -42,6 +42,7 @@ dependencies {
     implementation("androidx.appcompat:appcompat:1.6.1")
     implementation("com.google.android.material:material:1.11.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
+    implementation("androidx.recyclerview:recyclerview:1.3.2")
 
     // Firebase dependencies
     implementation(platform("com.google.firebase:firebase-bom:32.7.2"))
@@ -51,6 +52,9 @@ dependencies {
 
     // Image loading library
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    implementation("com.github.bumptech.glide:recyclerview-integration:4.16.0") {
+        isTransitive = false // Uses the recyclerview version declared above
+    }
 
     // Testing dependencies
     testImplementation("junit:junit:4.13.2")
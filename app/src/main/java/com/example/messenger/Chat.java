@@ -3,6 +3,7 @@ package com.example.messenger;
 import com.google.firebase.Timestamp;
 import java.util.List;
 import java.util.ArrayList;
+import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.PropertyName;
 
 public class Chat {
@@ -15,6 +16,10 @@ public class Chat {
     private String groupName;
     private List<String> favourite = new ArrayList<>();
     private java.util.Map<String, Long> unreadCounts = new java.util.HashMap<>();
+    private java.util.Map<String, Timestamp> lastRead = new java.util.HashMap<>(); // Per-user read watermark
+    private java.util.Map<String, PreviewOverride> previewOverrides = new java.util.HashMap<>(); // Per-user preview after delete-for-me
+    private List<String> memberNames; // Local only: names for a group's avatar, filled in from the user directory
+    private String otherUserPhotoUrl; // Local only: the peer's photo in a direct chat, from the user directory
 
     public Chat() {
         // Required empty constructor for Firestore
@@ -108,4 +113,98 @@ public class Chat {
     public void setUnreadCounts(java.util.Map<String, Long> unreadCounts) {
         this.unreadCounts = unreadCounts;
     }
+
+    public java.util.Map<String, Timestamp> getLastRead() {
+        return lastRead;
+    }
+
+    public void setLastRead(java.util.Map<String, Timestamp> lastRead) {
+        this.lastRead = lastRead;
+    }
+
+    public java.util.Map<String, PreviewOverride> getPreviewOverrides() {
+        return previewOverrides;
+    }
+
+    public void setPreviewOverrides(java.util.Map<String, PreviewOverride> previewOverrides) {
+        this.previewOverrides = previewOverrides;
+    }
+
+    @Exclude
+    public List<String> getMemberNames() {
+        return memberNames;
+    }
+
+    @Exclude
+    public void setMemberNames(List<String> memberNames) {
+        this.memberNames = memberNames;
+    }
+
+    @Exclude
+    public String getOtherUserPhotoUrl() {
+        return otherUserPhotoUrl;
+    }
+
+    @Exclude
+    public void setOtherUserPhotoUrl(String otherUserPhotoUrl) {
+        this.otherUserPhotoUrl = otherUserPhotoUrl;
+    }
+
+    // The preview this user should see: their own override while no newer message has arrived
+    @Exclude
+    public String getPreviewText(String userId) {
+        PreviewOverride override = activeOverride(userId);
+        return override != null ? override.getText() : lastMessageText;
+    }
+
+    @Exclude
+    public Timestamp getPreviewTime(String userId) {
+        PreviewOverride override = activeOverride(userId);
+        return override != null ? override.getTime() : lastMessageTime;
+    }
+
+    private PreviewOverride activeOverride(String userId) {
+        PreviewOverride override = previewOverrides != null ? previewOverrides.get(userId) : null;
+        if (override == null || override.getHiddenUpTo() == null) {
+            return null;
+        }
+        if (lastMessageTime != null && lastMessageTime.compareTo(override.getHiddenUpTo()) > 0) {
+            return null;
+        }
+        return override;
+    }
+
+    public static class PreviewOverride {
+        private String text;
+        private Timestamp time;
+        private Timestamp hiddenUpTo; // Newest hidden message; a later message makes the override stale
+
+        public PreviewOverride() {
+            // Required empty constructor for Firestore
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+
+        public Timestamp getTime() {
+            return time;
+        }
+
+        public void setTime(Timestamp time) {
+            this.time = time;
+        }
+
+        public Timestamp getHiddenUpTo() {
+            return hiddenUpTo;
+        }
+
+        public void setHiddenUpTo(Timestamp hiddenUpTo) {
+            this.hiddenUpTo = hiddenUpTo;
+        }
+    }
 }
\ No newline at end of file
@@ -1,5 +1,10 @@
 package com.example.messenger;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -9,40 +14,100 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.example.messenger.utils.ErrorHandler;
+import com.example.messenger.utils.FirestoreBatches;
+import com.example.messenger.utils.ImageCompressor;
+import com.example.messenger.utils.ListenerRegistry;
+import com.example.messenger.utils.SnapshotDispatcher;
+import com.example.messenger.utils.TextDrawableHelper;
+
 public class ChatActivity extends AppCompatActivity {
+    private static final int PAGE_SIZE = 50;
+    private static final int LOAD_OLDER_THRESHOLD = 10;
+    private static final int AVATAR_PRELOAD_AHEAD = 10; // Rows
+    private static final int IMAGE_MAX_DIMENSION = 1600; // px; a 12 MP photo ends up a few hundred KB
+    private static final int IMAGE_THUMBNAIL_DIMENSION = 240;
+    private static final int IMAGE_JPEG_QUALITY = 80;
+
     private RecyclerView messageRecyclerView;
     private MessageAdapter messageAdapter;
     private EditText messageInput;
     private ImageButton sendButton;
+    private ImageButton attachButton;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private String chatId;
     private String otherUserId;
-    private List<Message> messageList;
+    private MessageStore messageStore;
     private boolean isFavourite = false;
     private boolean isGroup = false;
     private String groupName = null;
+    private ListenerRegistration messagesListener;
+    private DocumentSnapshot oldestLoadedDocument; // Cursor for loading older pages
+    private boolean isLoadingOlderMessages = false;
+    private boolean hasMoreOlderMessages = true;
+    private boolean initialPageLoaded = false;
+    private List<String> chatParticipants; // Cached when the chat opens so sends need no extra read
+    private MessageOutbox outbox;
+    private ReadReceiptAggregator readReceipts;
+    private MessageRenderCache renderCache;
+    private ChatSummaryEngine summaryEngine;
+    private MessageSearchIndex messageIndex;
+    private final BroadcastReceiver localeOrDateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Time labels are cached, so rebuild them after midnight or a locale/time zone change
+            messageAdapter.onLocaleOrDateChanged();
+        }
+    };
+    private final MessageOutbox.Listener outboxListener = (failedChatId, messageIds) -> {
+        if (!failedChatId.equals(chatId)) {
+            return;
+        }
+        for (String messageId : messageIds) {
+            messageStore.remove(messageId);
+        }
+        Toast.makeText(this, "Failed to send message", Toast.LENGTH_SHORT).show();
+    };
+    private final ActivityResultLauncher<String> pickImageLauncher =
+        registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
+            if (uri != null) {
+                sendImage(uri);
+            }
+        });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -94,27 +159,58 @@ public class ChatActivity extends AppCompatActivity {
         messageRecyclerView = findViewById(R.id.messageRecyclerView);
         messageInput = findViewById(R.id.messageInput);
         sendButton = findViewById(R.id.sendButton);
+        attachButton = findViewById(R.id.attachButton);
 
         // Setup RecyclerView
-        messageList = new ArrayList<>();
-        messageRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        messageAdapter = new MessageAdapter(this, messageList, chatId);
+        messageStore = new MessageStore();
+        messageIndex = MessageSearchIndex.getInstance(this);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        messageRecyclerView.setLayoutManager(layoutManager);
+        readReceipts = new ReadReceiptAggregator(chatId, mAuth.getCurrentUser().getUid());
+        renderCache = new MessageRenderCache(mAuth.getCurrentUser().getUid());
+        summaryEngine = new ChatSummaryEngine(chatId, messageStore, ChatSummaryCoalescer.getInstance(this));
+        messageAdapter = new MessageAdapter(this, messageStore, chatId, readReceipts, renderCache, summaryEngine);
+        messageStore.setCallback(new AdapterListUpdateCallback(messageAdapter));
         messageRecyclerView.setAdapter(messageAdapter);
 
+        // Load the previous page when the user scrolls close to the oldest loaded message
+        messageRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= LOAD_OLDER_THRESHOLD) {
+                    loadOlderMessages();
+                }
+            }
+        });
+
+        IntentFilter localeOrDateFilter = new IntentFilter();
+        localeOrDateFilter.addAction(Intent.ACTION_DATE_CHANGED);
+        localeOrDateFilter.addAction(Intent.ACTION_TIME_CHANGED);
+        localeOrDateFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        localeOrDateFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        registerReceiver(localeOrDateReceiver, localeOrDateFilter);
+
         // Setup send button
+        outbox = MessageOutbox.getInstance(this);
+        outbox.addListener(outboxListener);
         sendButton.setOnClickListener(v -> sendMessage());
+        attachButton.setOnClickListener(v -> pickImageLauncher.launch("image/*"));
+
+        // Messages still queued from earlier sends show up as pending until they go out
+        messageStore.addAll(outbox.pendingMessages(chatId));
 
         // Load messages for this chat (works for both group and individual)
         loadMessages();
 
-        // Mark messages as read when chat is opened
-        markMessagesAsRead();
+        // Track read watermarks; messages are marked as read once the first page is in
+        listenForReadState();
 
-        // Check if chat is favourite for this user
+        // Check if chat is favourite for this user, and keep the participants for sending
         db.collection("chats").document(chatId)
             .get()
             .addOnSuccessListener(doc -> {
                 if (doc.exists()) {
+                    chatParticipants = (List<String>) doc.get("participants");
                     List<String> fav = (List<String>) doc.get("favourite");
                     String currentUserId = mAuth.getCurrentUser().getUid();
                     if (fav != null && fav.contains(currentUserId)) {
@@ -125,227 +221,337 @@ public class ChatActivity extends AppCompatActivity {
             });
     }
 
+    private CollectionReference messagesRef() {
+        return db.collection("chats").document(chatId).collection("messages");
+    }
+
+    private Query messagesQuery() {
+        return messagesRef().orderBy("timestamp", Query.Direction.ASCENDING);
+    }
+
     private void loadMessages() {
+        // Only the newest page is kept live; older pages are fetched on demand as the user scrolls up.
+        // Snapshots are deserialized on the background worker and only the finished changes reach the UI.
         String currentUserId = mAuth.getCurrentUser().getUid();
-        db.collection("chats").document(chatId)
-                .collection("messages")
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener((value, error) -> {
+        messagesListener = messagesQuery()
+                .limitToLast(PAGE_SIZE)
+                .addSnapshotListener(SnapshotDispatcher.background(), MetadataChanges.INCLUDE, (value, error) -> {
                     if (error != null) {
                         // Handle error
                         return;
                     }
 
                     if (value != null) {
-                        // Use a temporary list to build the updated message list
-                        List<Message> updatedMessageList = new ArrayList<>(messageList);
-                        boolean changed = false;
-
-                        for (DocumentChange dc : value.getDocumentChanges()) {
-                            Message message = dc.getDocument().toObject(Message.class);
-                            message.setId(dc.getDocument().getId());
-                            message.setChatId(chatId); // Ensure chat ID is set
-
-                            // Check if message is deleted for current user synchronously if possible
-                            // For a proper real-time filter on deletion, a different Firestore structure might be better.
-                            // Keeping asynchronous check for now, but optimizing how updates are applied.
-                            dc.getDocument().getReference().collection("deletedFor")
-                                .document(currentUserId)
-                                .get()
-                                .addOnSuccessListener(deletedDoc -> {
-                                    // Ensure UI updates are on the main thread
-                                    runOnUiThread(() -> {
-                                        boolean isDeletedForCurrentUser = deletedDoc.exists();
-                                        int oldIndex = dc.getOldIndex();
-                                        int newIndex = dc.getNewIndex();
-
-                                        switch (dc.getType()) {
-                                            case ADDED:
-                                                if (!isDeletedForCurrentUser) {
-                                                    // Add new message if not deleted for current user
-                                                    // Find the correct index to insert based on timestamp if needed, but for now add and rely on sorting.
-                                                     int insertIndex = findMessageInsertIndex(message);
-                                                    messageList.add(insertIndex, message);
-                                                    messageAdapter.notifyItemInserted(insertIndex);
-                                                    // Scroll to bottom if it's the latest message
-                                                     if (insertIndex == messageList.size() - 1 || (messageList.size() == 1 && insertIndex == 0)) {
-                                                        messageRecyclerView.smoothScrollToPosition(messageList.size() - 1);
-                                                    }
-                                                }
-                                                break;
-                                            case MODIFIED:
-                                                // Find and update existing message if not deleted for current user
-                                                 int existingIndex = findMessageIndex(message.getId());
-                                                if (!isDeletedForCurrentUser && existingIndex != -1) {
-                                                     // Update the message data
-                                                     messageList.set(existingIndex, message);
-                                                     messageAdapter.notifyItemChanged(existingIndex);
-                                                      // Scroll to bottom if the modified message is the last one
-                                                      if (existingIndex == messageList.size() - 1) {
-                                                          messageRecyclerView.smoothScrollToPosition(messageList.size() - 1);
-                                                      }
-                                                } else if (isDeletedForCurrentUser && existingIndex != -1) {
-                                                    // If message is now deleted for current user, remove it
-                                                     messageList.remove(existingIndex);
-                                                     messageAdapter.notifyItemRemoved(existingIndex);
-                                                }
-                                                // Note: If a modified message is added and wasn't deleted, but is now deleted, the REMOVED case might handle it too.
-                                                break;
-                                            case REMOVED:
-                                                // Remove message
-                                                 int removeIndex = findMessageIndex(message.getId());
-                                                if (removeIndex != -1) {
-                                                    messageList.remove(removeIndex);
-                                                    messageAdapter.notifyItemRemoved(removeIndex);
-                                                }
-                                                break;
-                                        }
-                                    });
-                                });
+                        List<MessageChange> changes = new ArrayList<>();
+                        List<Message> toIndex = new ArrayList<>();
+                        List<String> toUnindex = new ArrayList<>();
+                        // Metadata changes are included so a pending message is updated once the server confirms it
+                        for (DocumentChange dc : value.getDocumentChanges(MetadataChanges.INCLUDE)) {
+                            // A message pushed out of the live window by a newer one is still part of the
+                            // loaded history, so only treat REMOVED as a deletion when it was inside the window
+                            if (dc.getType() == DocumentChange.Type.REMOVED && isOutsideWindow(dc.getDocument(), value)) {
+                                continue;
+                            }
+                            Message message = toMessage(dc.getDocument());
+                            if (message != null) {
+                                renderCache.prepare(message);
+                                changes.add(new MessageChange(dc.getType(), message));
+                                // Feed the local search index from messages we are receiving anyway
+                                if (dc.getType() == DocumentChange.Type.REMOVED || message.isDeletedFor(currentUserId)) {
+                                    toUnindex.add(message.getId());
+                                } else if (!message.isPending()) {
+                                    toIndex.add(message);
+                                }
+                            }
                         }
+                        messageIndex.update(toIndex, toUnindex);
+                        List<MessageChange> finalChanges = Collections.unmodifiableList(changes);
+                        DocumentSnapshot windowStart = value.isEmpty() ? null : value.getDocuments().get(0);
+                        boolean windowFull = value.size() >= PAGE_SIZE;
+
+                        SnapshotDispatcher.postToMain(() -> {
+                            if (isDestroyed()) {
+                                return;
+                            }
+                            // First snapshot of the window: remember where older history starts
+                            if (oldestLoadedDocument == null && windowStart != null) {
+                                oldestLoadedDocument = windowStart;
+                                hasMoreOlderMessages = windowFull;
+                            }
+
+                            for (MessageChange change : finalChanges) {
+                                applyMessageChange(change.type, change.message);
+                            }
+
+                            // Initial load: jump to the newest message once the first page is in
+                            if (!initialPageLoaded) {
+                                initialPageLoaded = true;
+                                if (!messageStore.isEmpty()) {
+                                    messageRecyclerView.scrollToPosition(messageStore.size() - 1);
+                                }
+                                // Mark messages as read when chat is opened
+                                markMessagesAsRead();
+                            }
+                        });
+                    }
+                });
+    }
 
-                         // Initial load: sort messages and notify adapter once after all initial data is processed
-                         // For subsequent real-time updates, granular notifications are used.
-                         if (value.getDocumentChanges().size() == value.size()) {
-                              runOnUiThread(() -> {
-                                 // Sort the initial list by timestamp
-                                  messageList.sort((msg1, msg2) -> {
-                                     if (msg1.getTimestamp() == null || msg2.getTimestamp() == null) return 0;
-                                     return msg1.getTimestamp().compareTo(msg2.getTimestamp());
-                                  });
-                                 messageAdapter.notifyDataSetChanged();
-                                 if (!messageList.isEmpty()) {
-                                     messageRecyclerView.smoothScrollToPosition(messageList.size() - 1);
-                                 }
-                             });
-                         }
+    // Fetch the page of messages just before the oldest one loaded so far
+    private void loadOlderMessages() {
+        if (isLoadingOlderMessages || !hasMoreOlderMessages || oldestLoadedDocument == null) {
+            return;
+        }
+        isLoadingOlderMessages = true;
+        String currentUserId = mAuth.getCurrentUser().getUid();
+        messagesQuery()
+                .endBefore(oldestLoadedDocument)
+                .limitToLast(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(SnapshotDispatcher.background(), querySnapshot -> {
+                    List<Message> page = new ArrayList<>();
+                    List<String> hidden = new ArrayList<>();
+                    for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
+                        Message message = toMessage(doc);
+                        if (message != null && !message.isDeletedFor(currentUserId)) {
+                            renderCache.prepare(message);
+                            page.add(message);
+                        } else if (message != null) {
+                            hidden.add(message.getId());
+                        }
                     }
+                    messageIndex.update(page, hidden);
+                    DocumentSnapshot pageStart = querySnapshot.isEmpty() ? null : querySnapshot.getDocuments().get(0);
+                    boolean pageFull = querySnapshot.size() >= PAGE_SIZE;
+
+                    SnapshotDispatcher.postToMain(() -> {
+                        isLoadingOlderMessages = false;
+                        hasMoreOlderMessages = pageFull;
+                        if (isDestroyed() || pageStart == null) {
+                            return;
+                        }
+                        oldestLoadedDocument = pageStart;
+                        // The whole page sits above the loaded messages, so it lands as one range insert
+                        messageStore.addAll(page);
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    isLoadingOlderMessages = false;
+                    ErrorHandler.handleError(this, "Error loading older messages", e);
                 });
     }
 
-    // Helper method to find message index by ID
-    private int findMessageIndex(String messageId) {
-        for (int i = 0; i < messageList.size(); i++) {
-            if (messageList.get(i).getId() != null && messageList.get(i).getId().equals(messageId)) {
-                return i;
-            }
+    // True if the document sorts before everything still in the live window
+    private boolean isOutsideWindow(DocumentSnapshot doc, QuerySnapshot window) {
+        if (window.isEmpty()) {
+            return false;
         }
-        return -1;
+        Timestamp removedTime = doc.getTimestamp("timestamp");
+        Timestamp windowStart = window.getDocuments().get(0).getTimestamp("timestamp");
+        return removedTime != null && windowStart != null && removedTime.compareTo(windowStart) < 0;
     }
 
-    // Helper method to find the correct index to insert a new message based on timestamp
-    private int findMessageInsertIndex(Message newMessage) {
-        for (int i = 0; i < messageList.size(); i++) {
-            if (newMessage.getTimestamp() != null && messageList.get(i).getTimestamp() != null &&
-                newMessage.getTimestamp().compareTo(messageList.get(i).getTimestamp()) < 0) {
-                return i;
-            }
+    private Message toMessage(DocumentSnapshot doc) {
+        // Pending messages have no server timestamp yet, so place them by the local estimate
+        Message message = doc.toObject(Message.class, DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+        if (message != null) {
+            message.setId(doc.getId());
+            message.setChatId(chatId); // Ensure chat ID is set
+            message.setPending(doc.getMetadata().hasPendingWrites());
+        }
+        return message;
+    }
+
+    private void applyMessageChange(DocumentChange.Type type, Message message) {
+        String currentUserId = mAuth.getCurrentUser().getUid();
+
+        // Per-user deletion is stored on the message itself, so visibility is known without extra reads
+        boolean isDeletedForCurrentUser = message.isDeletedFor(currentUserId);
+
+        switch (type) {
+            case ADDED:
+            case MODIFIED:
+                if (isDeletedForCurrentUser) {
+                    // Hidden for the current user, drop it if it was showing
+                    messageStore.remove(message.getId());
+                    break;
+                }
+                boolean wasAtBottom = messageStore.isEmpty()
+                        || messageStore.indexOf(message.getId()) == messageStore.size() - 1;
+                int index = messageStore.upsert(message);
+                // Scroll to bottom if it's the latest message
+                if (initialPageLoaded && index == messageStore.size() - 1
+                        && (type == DocumentChange.Type.ADDED || wasAtBottom)) {
+                    messageRecyclerView.smoothScrollToPosition(index);
+                }
+                break;
+            case REMOVED:
+                // Remove message
+                messageStore.remove(message.getId());
+                break;
+        }
+    }
+
+    // A deserialized message change, built on the background worker and applied on the main thread
+    private static final class MessageChange {
+        final DocumentChange.Type type;
+        final Message message;
+
+        MessageChange(DocumentChange.Type type, Message message) {
+            this.type = type;
+            this.message = message;
         }
-        return messageList.size(); // Add to the end if timestamp is latest or null
     }
 
     private void markMessagesAsRead() {
         String currentUserId = mAuth.getCurrentUser().getUid();
-        db.collection("chats").document(chatId)
-            .collection("messages")
-            .whereNotEqualTo("senderId", currentUserId)
-            .whereEqualTo("status", "sent")
-            .get()
-            .addOnSuccessListener(querySnapshot -> {
-                for (QueryDocumentSnapshot doc : querySnapshot) {
-                    doc.getReference().update("status", "read");
+
+        // One write moves this user's read watermark and resets the unread count; "read" for
+        // individual messages is derived by comparing their timestamps against the watermark
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("lastRead." + currentUserId, FieldValue.serverTimestamp());
+        updates.put("unreadCounts." + currentUserId, 0);
+        db.collection("chats").document(chatId).update(updates);
+
+        // Keep the per-message status in step for the loaded window only, in chunked batches
+        List<DocumentReference> unread = new ArrayList<>();
+        for (int i = 0; i < messageStore.size(); i++) {
+            Message message = messageStore.get(i);
+            if (!currentUserId.equals(message.getSenderId()) && !"read".equals(message.getStatus()) && !message.isPending()) {
+                unread.add(messagesRef().document(message.getId()));
+            }
+        }
+        if (!unread.isEmpty()) {
+            FirestoreBatches.updateInChunks(db, unread, Collections.singletonMap("status", "read"));
+        }
+    }
+
+    // Keeps the read watermarks, participants and shared preview time up to date while the chat is open
+    private void listenForReadState() {
+        String currentUserId = mAuth.getCurrentUser().getUid();
+        DocumentReference chatRef = db.collection("chats").document(chatId);
+        // Watermarks are idempotent, so this one can follow the screen's start/stop through the registry
+        ListenerRegistry.getInstance().register(this, chatRef, () -> chatRef
+            .addSnapshotListener(SnapshotDispatcher.background(), (doc, error) -> {
+                if (error != null || doc == null || !doc.exists()) {
+                    return;
                 }
-            });
+                List<String> participants = (List<String>) doc.get("participants");
+                Timestamp lastMessageTime = doc.getTimestamp("lastMessageTime");
+                Map<String, Object> lastRead = (Map<String, Object>) doc.get("lastRead");
+                Timestamp ownWatermark = readWatermark(lastRead, currentUserId);
+                // Messages are read by everyone up to the oldest watermark among the other participants
+                Timestamp othersWatermark = null;
+                if (participants != null) {
+                    for (String participantId : participants) {
+                        if (participantId.equals(currentUserId)) {
+                            continue;
+                        }
+                        Timestamp watermark = readWatermark(lastRead, participantId);
+                        if (watermark == null) {
+                            othersWatermark = null;
+                            break;
+                        }
+                        if (othersWatermark == null || watermark.compareTo(othersWatermark) < 0) {
+                            othersWatermark = watermark;
+                        }
+                    }
+                }
+                Timestamp finalOthersWatermark = othersWatermark;
+                SnapshotDispatcher.postToMain(() -> {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    if (participants != null) {
+                        chatParticipants = participants;
+                    }
+                    messageAdapter.setReadWatermarks(ownWatermark, finalOthersWatermark);
+                    summaryEngine.setChatLastMessageTime(lastMessageTime);
+                });
+            }));
+    }
 
-        // Reset unread count for the current user in the chat document
-        db.collection("chats").document(chatId)
-            .update("unreadCounts." + currentUserId, 0);
+    private static Timestamp readWatermark(Map<String, Object> lastRead, String userId) {
+        Object value = lastRead != null ? lastRead.get(userId) : null;
+        return value instanceof Timestamp ? (Timestamp) value : null;
     }
 
     // Utility to create a chat if not exists between two users
     public void createChatIfNotExists(String user1Id, String user2Id, Runnable onChatReady) {
-        // Always store participants sorted for consistency
-        List<String> participants = Arrays.asList(user1Id, user2Id);
-        db.collection("chats")
-            .whereEqualTo("participants", participants)
-            .get()
-            .addOnSuccessListener(querySnapshot -> {
-                if (querySnapshot.isEmpty()) {
-                    Map<String, Object> chat = new HashMap<>();
-                    chat.put("participants", participants);
-                    chat.put("lastMessageText", "");
-                    chat.put("lastMessageTime", null);
-                    db.collection("chats").add(chat).addOnSuccessListener(docRef -> {
-                        chatId = docRef.getId();
-                        if (onChatReady != null) onChatReady.run();
-                    });
-                } else {
-                    chatId = querySnapshot.getDocuments().get(0).getId();
-                    if (onChatReady != null) onChatReady.run();
-                }
-            });
+        DirectChatResolver.getInstance().resolve(user1Id, user2Id, null)
+            .addOnSuccessListener(resolvedChatId -> {
+                chatId = resolvedChatId;
+                if (onChatReady != null) onChatReady.run();
+            })
+            .addOnFailureListener(e -> ErrorHandler.handleError(this, "Failed to create chat", e));
     }
 
-    // Update sendMessage to ensure chat exists before sending
     private void sendMessage() {
         String messageText = messageInput.getText().toString().trim();
         if (messageText.isEmpty()) {
             return;
         }
         String currentUserId = mAuth.getCurrentUser().getUid();
-        Message message = new Message(currentUserId, messageText, com.google.firebase.Timestamp.now());
-        
-        // Update chat document first
-        Map<String, Object> chatUpdates = new HashMap<>();
-        chatUpdates.put("lastMessageText", messageText);
-        chatUpdates.put("lastMessageTime", com.google.firebase.firestore.FieldValue.serverTimestamp());
-        
-        db.collection("chats").document(chatId).update(chatUpdates)
-            .addOnSuccessListener(aVoid -> {
-                // Add the message to the messages subcollection
-                db.collection("chats").document(chatId)
-                    .collection("messages")
-                    .add(message)
-                    .addOnSuccessListener(documentReference -> {
-                        // Optionally update message with its ID and chat ID
-                        documentReference.update(
-                            "id", documentReference.getId(),
-                            "chatId", chatId,
-                                "timestamp", com.google.firebase.firestore.FieldValue.serverTimestamp()
-                        );
-
-                        // Increment unread count for other participants
-                        db.collection("chats").document(chatId)
-                            .get()
-                            .addOnSuccessListener(chatDoc -> {
-                                if (chatDoc.exists()) {
-                                    List<String> participants = (List<String>) chatDoc.get("participants");
-                                    if (participants != null) {
-                                        Map<String, Object> updates = new HashMap<>();
-                                        for (String participantId : participants) {
-                                            if (!participantId.equals(currentUserId)) {
-                                                updates.put("unreadCounts." + participantId, com.google.firebase.firestore.FieldValue.increment(1));
-                                            }
-                                        }
-                                        if (!updates.isEmpty()) {
-                                            db.collection("chats").document(chatId).update(updates);
-                                        }
-                                    }
-                                }
-                            })
-                            .addOnFailureListener(e -> {
-                                Toast.makeText(ChatActivity.this, "Failed to update unread counts", Toast.LENGTH_SHORT).show();
-                            });
-
-                        messageInput.setText("");
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(ChatActivity.this, "Failed to send message", Toast.LENGTH_SHORT).show();
+        // The outbox persists the message before sending, so it is safe to clear the input right away
+        Message pending = outbox.enqueue(chatId, currentUserId, messageText, chatParticipants);
+        messageInput.setText("");
+        int index = messageStore.upsert(pending);
+        messageRecyclerView.smoothScrollToPosition(index);
+    }
+
+    // Downscales and recompresses the picked image off the main thread; the original is never uploaded
+    private void sendImage(Uri uri) {
+        String currentUserId = mAuth.getCurrentUser().getUid();
+        ImageCompressor.compress(getContentResolver(), uri, IMAGE_MAX_DIMENSION, IMAGE_THUMBNAIL_DIMENSION,
+            IMAGE_JPEG_QUALITY, new ImageCompressor.Callback() {
+                @Override
+                public void onCompressed(ImageCompressor.Result result) {
+                    outbox.enqueueImage(chatId, currentUserId, result, chatParticipants, new MessageOutbox.EnqueueCallback() {
+                        @Override
+                        public void onQueued(Message pending) {
+                            if (isDestroyed()) {
+                                return;
+                            }
+                            int index = messageStore.upsert(pending);
+                            messageRecyclerView.smoothScrollToPosition(index);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            ErrorHandler.handleError(ChatActivity.this, "Could not send that image", e);
+                        }
                     });
-            })
-            .addOnFailureListener(e -> {
-                Toast.makeText(ChatActivity.this, "Failed to update chat", Toast.LENGTH_SHORT).show();
-        });
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    ErrorHandler.handleError(ChatActivity.this, "Could not read that image", e);
+                }
+            });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't leave collected read receipts waiting on the timer once the chat is off screen
+        if (readReceipts != null) {
+            readReceipts.flush();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (renderCache != null) {
+            unregisterReceiver(localeOrDateReceiver);
+            renderCache.shutdown();
+        }
+        if (outbox != null) {
+            outbox.removeListener(outboxListener);
+        }
+        if (messagesListener != null) {
+            messagesListener.remove();
+        }
     }
 
     @Override
@@ -364,10 +570,26 @@ public class ChatActivity extends AppCompatActivity {
         } else if (item.getItemId() == R.id.action_favourite) {
             toggleFavourite();
             return true;
+        } else if (item.getItemId() == R.id.action_search_messages) {
+            MessageSearchDialog.show(this, chatId, this::showSearchResult);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    // Jumps to a search hit if it is loaded; older hits are shown in full instead
+    private void showSearchResult(MessageSearchIndex.Result result) {
+        int index = messageStore.indexOf(result.messageId);
+        if (index != -1) {
+            messageRecyclerView.scrollToPosition(index);
+        } else {
+            new AlertDialog.Builder(this)
+                .setMessage(result.text)
+                .setPositiveButton("OK", null)
+                .show();
+        }
+    }
+
     private void toggleFavourite() {
         String currentUserId = mAuth.getCurrentUser().getUid();
         db.collection("chats").document(chatId)
@@ -413,19 +635,21 @@ public class ChatActivity extends AppCompatActivity {
                     .setPositiveButton("Close", null)
                     .create();
                 
-                // Load participants
-                db.collection("users")
-                    .whereIn("uid", participants)
-                    .get()
-                    .addOnSuccessListener(querySnapshot -> {
-                        participantUsers.clear();
-                        for (QueryDocumentSnapshot doc : querySnapshot) {
-                            User user = doc.toObject(User.class);
-                            participantUsers.add(user);
-                        }
-                        // Set adapter with loaded users
-                        participantsRecyclerView.setAdapter(new GroupParticipantsAdapter(participantUsers));
-                    });
+                // Load participants, in chunks that fit Firestore's "in" limit and from the local directory where possible
+                ParticipantLoader.load(this, participants, users -> {
+                    if (isFinishing() || isDestroyed()) {
+                        return;
+                    }
+                    participantUsers.clear();
+                    participantUsers.addAll(users);
+                    // Set adapter with loaded users
+                    GroupParticipantsAdapter participantsAdapter = new GroupParticipantsAdapter(participantUsers);
+                    participantsRecyclerView.setAdapter(participantsAdapter);
+                    // Fetch profile photos a few rows ahead of the scroll position
+                    int avatarSize = TextDrawableHelper.avatarSizePx(this);
+                    participantsRecyclerView.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(this),
+                        participantsAdapter, new FixedPreloadSizeProvider<>(avatarSize, avatarSize), AVATAR_PRELOAD_AHEAD));
+                });
                 
                 dialog.show();
             }
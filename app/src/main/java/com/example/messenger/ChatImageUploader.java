@@ -0,0 +1,208 @@
+package com.example.messenger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.messenger.utils.ImageCompressor;
+import com.example.messenger.utils.SnapshotDispatcher;
+
+// Uploads the images of outgoing image messages to Firebase Storage. The compressed image and
+// its thumbnail are first written to app storage, then each is sent with putFile, which runs a
+// resumable upload session. The session URI is saved as soon as Storage hands it out, so after
+// a dropped connection or a restart the upload continues from what the server already has
+// instead of starting over. Failed uploads are retried with backoff until the server rejects
+// them for good. Main thread only, apart from the file writes.
+public class ChatImageUploader {
+    private static final String TAG = "ChatImageUploader";
+    private static final String PREFS_NAME = "chat_image_uploads"; // Storage path -> upload session URI
+    private static final String DIRECTORY = "outgoing_images";
+    private static final long INITIAL_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60_000;
+    private static final StorageMetadata METADATA = new StorageMetadata.Builder()
+        .setContentType("image/jpeg")
+        .setCacheControl("public, max-age=31536000") // Paths are per message, so the bytes never change
+        .build();
+
+    public interface StageCallback {
+        void onStaged(File image, File thumbnail);
+
+        void onError(Exception e);
+    }
+
+    public interface Callback {
+        void onUploaded(String imageUrl, String thumbnailUrl);
+
+        // Called when retrying cannot help, e.g. the upload was rejected by the security rules
+        void onFailed(Exception e);
+    }
+
+    private static ChatImageUploader instance;
+
+    private final SharedPreferences prefs;
+    private final File directory;
+    private final FirebaseStorage storage;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService fileExecutor =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "chat-image-files"));
+    private final Set<String> uploading = new HashSet<>(); // Message ids
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+    public static synchronized ChatImageUploader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatImageUploader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ChatImageUploader(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        directory = new File(context.getFilesDir(), DIRECTORY);
+        storage = FirebaseStorage.getInstance();
+    }
+
+    // Writes the compressed image and thumbnail to files that outlive the process
+    public void stage(String messageId, ImageCompressor.Result image, StageCallback callback) {
+        fileExecutor.execute(() -> {
+            File imageFile = new File(directory, messageId + ".jpg");
+            File thumbnailFile = new File(directory, messageId + "_thumb.jpg");
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                write(imageFile, image.jpeg);
+                write(thumbnailFile, image.thumbnailJpeg != null ? image.thumbnailJpeg : image.jpeg);
+                SnapshotDispatcher.postToMain(() -> callback.onStaged(imageFile, thumbnailFile));
+            } catch (IOException e) {
+                imageFile.delete();
+                thumbnailFile.delete();
+                SnapshotDispatcher.postToMain(() -> callback.onError(e));
+            }
+        });
+    }
+
+    // Uploads a staged image; calling it again for a message already uploading does nothing
+    public void upload(String chatId, String messageId, String imagePath, String thumbnailPath, Callback callback) {
+        if (!uploading.add(messageId)) {
+            return;
+        }
+        File image = new File(imagePath);
+        File thumbnail = new File(thumbnailPath);
+        if (!image.exists() || !thumbnail.exists()) {
+            // App data was cleared under us, there is nothing left to send
+            uploading.remove(messageId);
+            callback.onFailed(new FileNotFoundException(imagePath));
+            return;
+        }
+
+        String[] thumbnailUrl = new String[1];
+        uploadFile(storagePath(chatId, messageId, true), thumbnail)
+            .continueWithTask(task -> {
+                if (!task.isSuccessful()) {
+                    throw task.getException();
+                }
+                thumbnailUrl[0] = task.getResult().toString();
+                return uploadFile(storagePath(chatId, messageId, false), image);
+            })
+            .addOnSuccessListener(imageUrl -> {
+                uploading.remove(messageId);
+                failedAttempts.remove(messageId);
+                callback.onUploaded(imageUrl.toString(), thumbnailUrl[0]);
+            })
+            .addOnFailureListener(e -> {
+                uploading.remove(messageId);
+                if (e instanceof StorageException
+                        && ((StorageException) e).getErrorCode() == StorageException.ERROR_NOT_AUTHORIZED) {
+                    failedAttempts.remove(messageId);
+                    callback.onFailed(e);
+                    return;
+                }
+                int attempts = failedAttempts.containsKey(messageId) ? failedAttempts.get(messageId) + 1 : 1;
+                failedAttempts.put(messageId, attempts);
+                long delay = Math.min(INITIAL_BACKOFF_MS << Math.min(attempts - 1, 16), MAX_BACKOFF_MS);
+                Log.w(TAG, "Image upload failed for message " + messageId + ", retry " + attempts + " in " + delay + "ms", e);
+                handler.postDelayed(() -> upload(chatId, messageId, imagePath, thumbnailPath, callback), delay);
+            });
+    }
+
+    // Deletes the staged files and any saved sessions once a message no longer needs them
+    public void discard(String chatId, String messageId, String imagePath, String thumbnailPath) {
+        prefs.edit()
+            .remove(storagePath(chatId, messageId, false))
+            .remove(storagePath(chatId, messageId, true))
+            .apply();
+        fileExecutor.execute(() -> {
+            new File(imagePath).delete();
+            new File(thumbnailPath).delete();
+        });
+    }
+
+    private Task<Uri> uploadFile(String path, File file) {
+        StorageReference ref = storage.getReference().child(path);
+        String savedSession = prefs.getString(path, null);
+        UploadTask upload = savedSession != null
+            ? ref.putFile(Uri.fromFile(file), METADATA, Uri.parse(savedSession))
+            : ref.putFile(Uri.fromFile(file), METADATA);
+        if (savedSession != null) {
+            Log.d(TAG, "Resuming upload of " + path);
+        }
+        upload.addOnProgressListener(snapshot -> {
+            Uri session = snapshot.getUploadSessionUri();
+            if (session != null && !session.toString().equals(prefs.getString(path, null))) {
+                prefs.edit().putString(path, session.toString()).apply();
+            }
+        });
+        return upload.continueWithTask(task -> {
+            if (!task.isSuccessful()) {
+                Exception e = task.getException();
+                if (isExpiredSession(e)) {
+                    // The server dropped the session, the next attempt starts a new one
+                    prefs.edit().remove(path).apply();
+                }
+                throw e;
+            }
+            prefs.edit().remove(path).apply();
+            return ref.getDownloadUrl();
+        });
+    }
+
+    private static boolean isExpiredSession(Exception e) {
+        if (!(e instanceof StorageException)) {
+            return false;
+        }
+        int httpCode = ((StorageException) e).getHttpResultCode();
+        return httpCode == 404 || httpCode == 410;
+    }
+
+    private static String storagePath(String chatId, String messageId, boolean thumbnail) {
+        return "chat_images/" + chatId + "/" + messageId + (thumbnail ? "_thumb.jpg" : ".jpg");
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes);
+            output.getFD().sync();
+        }
+    }
+}
@@ -20,9 +20,11 @@ import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import android.app.AlertDialog;
 import android.widget.EditText;
 import android.widget.LinearLayout;
@@ -33,26 +35,42 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+import com.example.messenger.utils.AvatarLoader;
 import com.example.messenger.utils.ErrorHandler;
+import com.example.messenger.utils.ListenerRegistry;
+import com.example.messenger.utils.SnapshotDispatcher;
 import com.example.messenger.utils.TextDrawableHelper;
 import android.widget.PopupMenu;
 import java.util.HashSet;
 import java.util.Set;
 import android.os.Handler;
+import android.os.Looper;
 import com.google.firebase.firestore.DocumentChange;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
 
 public class ChatListActivity extends AppCompatActivity {
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
     private RecyclerView chatListRecyclerView;
     private ChatListAdapter chatAdapter;
-    private List<Chat> chatList;
+    private ChatListViews chatViews; // Only touched on the snapshot worker
+    private final Map<String, List<String>> avatarUserIds = new HashMap<>(); // chatId -> peer or first members, snapshot worker only
+    private Map<String, List<ChatListItem>> publishedViews = Collections.emptyMap(); // Latest per-tab lists, main thread
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::runSearch;
+    private String searchQuery = "";
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private TextInputEditText searchEditText;
     private TabLayout chatTabs;
     private String currentTab = "All";
-    private List<User> allUsers = new ArrayList<>(); // For group creation
+    private static final int GROUP_PICKER_LIMIT = 500; // Users offered when creating a group
+    private static final int GROUP_AVATAR_MEMBERS = 4;
+    private static final int AVATAR_PRELOAD_AHEAD = 10; // Rows
     private com.google.android.material.button.MaterialButton createGroupButton;
 
     @Override
@@ -71,9 +89,6 @@ public class ChatListActivity extends AppCompatActivity {
             return;
         }
 
-        // Set user as online
-        setUserOnlineStatus(true);
-
         // Setup toolbar
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -86,10 +101,13 @@ public class ChatListActivity extends AppCompatActivity {
         createGroupButton = findViewById(R.id.createGroupButton);
 
         // Setup RecyclerView
-        chatList = new ArrayList<>();
-        chatAdapter = new ChatListAdapter(this, chatList);
+        chatAdapter = new ChatListAdapter(this);
         chatListRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         chatListRecyclerView.setAdapter(chatAdapter);
+        // Fetch profile photos a few rows ahead of the scroll position
+        int avatarSize = TextDrawableHelper.avatarSizePx(this);
+        chatListRecyclerView.addOnScrollListener(new RecyclerViewPreloader<>(
+            Glide.with(this), chatAdapter, new FixedPreloadSizeProvider<>(avatarSize, avatarSize), AVATAR_PRELOAD_AHEAD));
 
         // Setup search functionality
         searchEditText.addTextChangedListener(new TextWatcher() {
@@ -98,16 +116,16 @@ public class ChatListActivity extends AppCompatActivity {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                chatAdapter.filter(s.toString());
+                // Only the last keystroke of a burst is searched
+                searchQuery = s.toString();
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
             }
 
             @Override
             public void afterTextChanged(Editable s) {}
         });
 
-        // Load all users for group creation
-        loadAllUsers();
-
         // Setup FAB click listener for new chat
         newChatFab.setOnClickListener(v -> {
             Intent intent = new Intent(ChatListActivity.this, NewChatActivity.class);
@@ -148,40 +166,64 @@ public class ChatListActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        loadChats();
+    protected void onStart() {
+        super.onStart();
+        if (chatViews != null) {
+            // Rows take photos and member names from the local directory, so keep it current
+            UserDirectory.getInstance(this).sync(() -> SnapshotDispatcher.background().execute(this::refreshProfiles));
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Set user as offline when app is closed
-        setUserOnlineStatus(false);
+        searchHandler.removeCallbacks(searchRunnable);
+        if (chatListRecyclerView != null) {
+            // Recycles every row, which hands their presence subscriptions back
+            chatListRecyclerView.setAdapter(null);
+        }
     }
 
+    // Registered once; the registry keeps it attached only while this screen is started
     private void loadChats() {
         String currentUserId = mAuth.getCurrentUser().getUid();
-        db.collection("chats")
+        UserDirectory userDirectory = UserDirectory.getInstance(this);
+        chatViews = new ChatListViews(currentUserId);
+        Query chatsQuery = db.collection("chats")
             .whereArrayContains("participants", currentUserId)
-            .orderBy("lastMessageTime", Query.Direction.DESCENDING)
-            .addSnapshotListener((value, error) -> {
+            .orderBy("lastMessageTime", Query.Direction.DESCENDING);
+        ListenerRegistry.getInstance().register(this, chatsQuery, () -> {
+            // A reattached listener starts over with a full snapshot, so rebuild the list from it
+            SnapshotDispatcher.background().execute(() -> {
+                chatViews.clear();
+                avatarUserIds.clear();
+            });
+            return chatsQuery.addSnapshotListener(SnapshotDispatcher.background(), (value, error) -> {
                 if (error != null) {
                     ErrorHandler.handleError(this, "Error loading chats", error);
                     return;
                 }
 
                 if (value != null) {
-                    // Process all document changes in the snapshot
-                    for (DocumentChange dc : value.getDocumentChanges()) {
-                        Chat chat = dc.getDocument().toObject(Chat.class);
+                    // Process all document changes in the snapshot on the background worker. Profiles
+                    // for avatars are collected first and read from the directory in one query.
+                    List<DocumentChange> changes = value.getDocumentChanges();
+                    List<Chat> chats = new ArrayList<>(changes.size());
+                    Set<String> lookupIds = new HashSet<>();
+                    for (DocumentChange dc : changes) {
+                        // Estimated server times keep chats with a pending send in their sorted place
+                        Chat chat = dc.getDocument().toObject(Chat.class, DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
                         chat.setId(dc.getDocument().getId());
+                        chats.add(chat);
 
                         // Get unread count for the current user
                         Long unreadCount = dc.getDocument().getLong("unreadCounts." + currentUserId);
                         if (unreadCount != null) {
                             chat.getUnreadCounts().put(currentUserId, unreadCount);
                         }
+                        if (dc.getType() == DocumentChange.Type.REMOVED) {
+                            continue;
+                        }
 
                         // For individual chats, get the other user's name from the userNames map
                         if (!chat.isGroup()) {
@@ -199,74 +241,95 @@ public class ChatListActivity extends AppCompatActivity {
                             } else {
                                 chat.setOtherUserName("?");
                             }
-                        }
-
-                        switch (dc.getType()) {
-                            case ADDED:
-                                // Add new chat to the list at the correct index
-                                // Check if the chat already exists in the list to avoid duplicates
-                                int existingIndex = findChatIndex(chat.getId());
-                                if (existingIndex == -1) {
-                                    chatList.add(dc.getNewIndex(), chat);
-                                    // Update filtered list based on current tab and search query
-                                    filterChatsByTab();
-                                } else {
-                                     // If chat exists, it might be a move or just an update without index change
-                                     // For now, we'll treat it as a modification to ensure data is fresh
-                                     // A more sophisticated approach could handle moves explicitly
-                                      chatList.set(existingIndex, chat);
-                                      filterChatsByTab(); // Re-filter to update UI
-                                }
-                                break;
-                            case MODIFIED:
-                                // Update the existing chat in the list at the correct index
-                                int oldIndex = findChatIndex(chat.getId());
-                                if (oldIndex != -1) {
-                                     // Remove from old position
-                                     chatList.remove(oldIndex);
-                                     // Add to new position
-                                     chatList.add(dc.getNewIndex(), chat);
-                                    // Update filtered list based on current tab and search query
-                                     filterChatsByTab();
-                                } else {
-                                     // This case should ideally not happen if ADDED is handled correctly,
-                                     // but as a fallback, add if not found.
-                                     chatList.add(dc.getNewIndex(), chat);
-                                     filterChatsByTab(); // Re-filter to update UI
-                                }
-                                break;
-                            case REMOVED:
-                                // Remove the chat from the list
-                                int removeIndex = findChatIndex(chat.getId());
-                                if (removeIndex != -1) {
-                                    chatList.remove(removeIndex);
-                                     // Update filtered list based on current tab and search query
-                                     filterChatsByTab();
+                            // Lets opening a chat with this user skip the lookup, including for older chats without a fixed id
+                            if (otherUserId != null) {
+                                DirectChatResolver.getInstance().remember(currentUserId, otherUserId, chat.getId());
+                                avatarUserIds.put(chat.getId(), Collections.singletonList(otherUserId));
+                                lookupIds.add(otherUserId);
+                            }
+                        } else if (chat.getParticipants() != null) {
+                            // Group avatars show the first few other members, named from the local directory
+                            List<String> memberIds = new ArrayList<>();
+                            for (String participant : chat.getParticipants()) {
+                                if (!participant.equals(currentUserId) && memberIds.size() < GROUP_AVATAR_MEMBERS) {
+                                    memberIds.add(participant);
                                 }
-                                break;
+                            }
+                            avatarUserIds.put(chat.getId(), memberIds);
+                            lookupIds.addAll(memberIds);
                         }
                     }
 
-                     // After processing all changes, update the adapter on the main thread
-                    runOnUiThread(() -> chatAdapter.setChats(new ArrayList<>(chatList))); // Provide a new list instance
+                    Map<String, User> users = lookupIds.isEmpty()
+                        ? Collections.emptyMap()
+                        : userDirectory.getUsersNow(lookupIds);
+                    for (int i = 0; i < changes.size(); i++) {
+                        Chat chat = chats.get(i);
+                        // Each change patches the tab views in place, found by id rather than by index
+                        if (changes.get(i).getType() == DocumentChange.Type.REMOVED) {
+                            chatViews.remove(chat.getId());
+                            avatarUserIds.remove(chat.getId());
+                            continue;
+                        }
+                        applyProfiles(chat, users);
+                        chatViews.upsert(chat);
+                    }
                 } else {
-                     // Handle empty chat list initially or if all chats are removed
-                     runOnUiThread(() -> {
-                        chatList.clear();
-                        filterChatsByTab(); // This will also call setChats internally with an empty list
-                     });
+                    // Handle empty chat list initially or if all chats are removed
+                    chatViews.clear();
                 }
+
+                // Hand one finished set of views to the UI thread per snapshot
+                showViews(chatViews.publish());
             });
+        });
     }
 
-    // Helper method to find chat index by ID
-    private int findChatIndex(String chatId) {
-        for (int i = 0; i < chatList.size(); i++) {
-            if (chatList.get(i).getId() != null && chatList.get(i).getId().equals(chatId)) {
-                return i;
+    // Sets the peer photo or group member names from the directory; true when either changed
+    private boolean applyProfiles(Chat chat, Map<String, User> users) {
+        List<String> userIds = avatarUserIds.get(chat.getId());
+        if (userIds == null) {
+            return false;
+        }
+        if (!chat.isGroup()) {
+            User otherUser = users.get(userIds.get(0));
+            String photoUrl = otherUser != null ? otherUser.getPhotoUrl() : null;
+            boolean changed = !Objects.equals(photoUrl, chat.getOtherUserPhotoUrl());
+            chat.setOtherUserPhotoUrl(photoUrl);
+            return changed;
+        }
+        List<String> memberNames = new ArrayList<>();
+        for (String memberId : userIds) {
+            if (users.containsKey(memberId)) {
+                memberNames.add(users.get(memberId).getName());
+            }
+        }
+        boolean changed = !memberNames.equals(chat.getMemberNames());
+        chat.setMemberNames(memberNames);
+        return changed;
+    }
+
+    // After a directory sync, rows whose profiles arrived or changed are rebuilt; runs on the snapshot worker
+    private void refreshProfiles() {
+        Set<String> lookupIds = new HashSet<>();
+        for (List<String> userIds : avatarUserIds.values()) {
+            lookupIds.addAll(userIds);
+        }
+        if (lookupIds.isEmpty()) {
+            return;
+        }
+        Map<String, User> users = UserDirectory.getInstance(this).getUsersNow(lookupIds);
+        boolean changed = false;
+        for (String chatId : avatarUserIds.keySet()) {
+            Chat chat = chatViews.chat(chatId);
+            if (chat != null && applyProfiles(chat, users)) {
+                chatViews.upsert(chat);
+                changed = true;
             }
         }
-        return -1;
+        if (changed) {
+            showViews(chatViews.publish());
+        }
     }
 
     @Override
@@ -299,9 +362,7 @@ public class ChatListActivity extends AppCompatActivity {
                     startActivity(new Intent(this, ProfileSettingsActivity.class));
                     return true;
                 } else if (id == R.id.menu_logout) {
-                    mAuth.signOut();
-                    startActivity(new Intent(this, LoginActivity.class));
-                    finish();
+                    signOut();
                     return true;
                 } else if (id == R.id.menu_reset_data) {
                     resetData();
@@ -311,15 +372,28 @@ public class ChatListActivity extends AppCompatActivity {
             });
             popup.show();
             return true;
+        } else if (item.getItemId() == R.id.action_search_messages) {
+            MessageSearchDialog.show(this, null, result -> openChat(result.chatId));
+            return true;
         } else if (item.getItemId() == R.id.action_logout) {
-            mAuth.signOut();
-            startActivity(new Intent(this, LoginActivity.class));
-            finish();
+            signOut();
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void signOut() {
+        PresenceHeartbeat.getInstance().markOffline();
+        // The search index holds this account's messages, the next account must not see them
+        MessageSearchIndex.getInstance(this).clear();
+        // Queued messages and summaries were written as this account and cannot be sent as the next one
+        MessageOutbox.getInstance(this).clear();
+        ChatSummaryCoalescer.getInstance(this).clear();
+        mAuth.signOut();
+        startActivity(new Intent(this, LoginActivity.class));
+        finish();
+    }
+
     private void resetData() {
         // First, delete all existing data
         db.collection("chats").get().addOnSuccessListener(queryDocumentSnapshots -> {
@@ -342,14 +416,18 @@ public class ChatListActivity extends AppCompatActivity {
         // Create test user 1
         Map<String, Object> user1 = new HashMap<>();
         user1.put("name", "John Doe");
+        user1.put("nameKey", ChatSearchIndex.normalize("John Doe"));
         user1.put("email", "john@example.com");
         user1.put("uid", "user1");
+        user1.put("updatedAt", FieldValue.serverTimestamp());
 
         // Create test user 2
         Map<String, Object> user2 = new HashMap<>();
         user2.put("name", "Jane Smith");
+        user2.put("nameKey", ChatSearchIndex.normalize("Jane Smith"));
         user2.put("email", "jane@example.com");
         user2.put("uid", "user2");
+        user2.put("updatedAt", FieldValue.serverTimestamp());
 
         // Add users to Firestore
         db.collection("users").document("user1").set(user1);
@@ -372,6 +450,8 @@ public class ChatListActivity extends AppCompatActivity {
             if (!doc.exists()) {
                 Map<String, Object> user = new HashMap<>();
                 user.put("name", name);
+                user.put("nameKey", ChatSearchIndex.normalize(name));
+                user.put("updatedAt", FieldValue.serverTimestamp());
                 db.collection("users").document(uid).set(user);
             }
         });
@@ -379,20 +459,8 @@ public class ChatListActivity extends AppCompatActivity {
 
     // Utility to create a chat if not exists between two users
     public void createChatIfNotExists(String user1Id, String user2Id) {
-        // Always store participants sorted for consistency
-        List<String> participants = Arrays.asList(user1Id, user2Id);
-        db.collection("chats")
-            .whereEqualTo("participants", participants)
-            .get()
-            .addOnSuccessListener(querySnapshot -> {
-                if (querySnapshot.isEmpty()) {
-                    Map<String, Object> chat = new HashMap<>();
-                    chat.put("participants", participants);
-                    chat.put("lastMessageText", "");
-                    chat.put("lastMessageTime", null);
-                    db.collection("chats").add(chat);
-                }
-            });
+        DirectChatResolver.getInstance().resolve(user1Id, user2Id, null)
+            .addOnFailureListener(e -> ErrorHandler.handleError(this, "Failed to create chat", e));
     }
 
     // Utility to create a parent chat document with required fields
@@ -411,57 +479,69 @@ public class ChatListActivity extends AppCompatActivity {
             .addOnFailureListener(e -> ErrorHandler.handleError(this, "Failed to create chat", e));
     }
 
-    private void filterChatsByTab() {
-        List<Chat> filtered = new ArrayList<>();
-        String currentUserId = mAuth.getCurrentUser().getUid();
+    // The chat details needed to open it live with the worker-owned views
+    private void openChat(String chatId) {
+        if (chatViews == null) {
+            return;
+        }
+        SnapshotDispatcher.background().execute(() -> {
+            ChatListItem item = chatViews.item(chatId);
+            if (item != null) {
+                SnapshotDispatcher.postToMain(() -> ChatListAdapter.openChat(this, item));
+            }
+        });
+    }
 
+    // Matches are looked up on the snapshot worker, which owns the search index
+    private void runSearch() {
+        if (chatViews == null) {
+            return;
+        }
+        String query = searchQuery;
+        SnapshotDispatcher.background().execute(() -> {
+            chatViews.setQuery(query);
+            showViews(chatViews.publish());
+        });
+    }
+
+    private void showViews(Map<String, List<ChatListItem>> views) {
+        SnapshotDispatcher.postToMain(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            publishedViews = views;
+            filterChatsByTab();
+        });
+    }
+
+    // Shows the already materialized view for the selected tab
+    private void filterChatsByTab() {
         // Show or hide the Create Group button based on the selected tab
-        if (currentTab != null && currentTab.equals("Groups")) {
+        if (currentTab != null && currentTab.equals(ChatListViews.TAB_GROUPS)) {
             createGroupButton.setVisibility(View.VISIBLE);
         } else {
             createGroupButton.setVisibility(View.GONE);
         }
 
-        if (currentTab != null) {
-            switch (currentTab) {
-                case "Groups":
-                    // Show only group chats
-                    for (Chat chat : chatList) {
-                        if (chat.isGroup()) {
-                            filtered.add(chat);
-                        }
-                    }
-                    break;
-                case "Favourites":
-                    // Show only favourite chats
-                    for (Chat chat : chatList) {
-                        if (chat.getFavourite() != null && chat.getFavourite().contains(currentUserId)) {
-                            filtered.add(chat);
-                        }
-                    }
-                    break;
-                default:
-                    // Show all chats
-                    filtered.addAll(chatList);
-                    break;
-            }
-        } else {
-            filtered.addAll(chatList);
+        List<ChatListItem> view = publishedViews.get(currentTab != null ? currentTab : ChatListViews.TAB_ALL);
+        if (view == null) {
+            view = publishedViews.get(ChatListViews.TAB_ALL);
         }
-        chatAdapter.setChats(filtered);
+        chatAdapter.setItems(view != null ? view : Collections.emptyList());
     }
 
-    private void loadAllUsers() {
-        db.collection("users").get().addOnSuccessListener(querySnapshot -> {
-            allUsers.clear();
-            for (QueryDocumentSnapshot doc : querySnapshot) {
-                User user = doc.toObject(User.class);
-                allUsers.add(user);
+    // Users come from the local directory, which only reads profiles changed since its last sync
+    private void showCreateGroupDialog() {
+        String currentUserId = mAuth.getCurrentUser().getUid();
+        UserDirectory directory = UserDirectory.getInstance(this);
+        directory.sync(() -> directory.loadPage(currentUserId, 0, GROUP_PICKER_LIMIT, users -> {
+            if (!isFinishing() && !isDestroyed()) {
+                showCreateGroupDialog(users);
             }
-        });
+        }));
     }
 
-    private void showCreateGroupDialog() {
+    private void showCreateGroupDialog(List<User> users) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Create Group");
         LinearLayout layout = new LinearLayout(this);
@@ -474,14 +554,12 @@ public class ChatListActivity extends AppCompatActivity {
         usersLayout.setOrientation(LinearLayout.VERTICAL);
         List<CheckBox> checkBoxes = new ArrayList<>();
         String currentUserId = mAuth.getCurrentUser().getUid();
-        for (User user : allUsers) {
-            if (!user.getUid().equals(currentUserId)) {
-                CheckBox checkBox = new CheckBox(this);
-                checkBox.setText(user.getName());
-                checkBox.setTag(user.getUid());
-                usersLayout.addView(checkBox);
-                checkBoxes.add(checkBox);
-            }
+        for (User user : users) {
+            CheckBox checkBox = new CheckBox(this);
+            checkBox.setText(user.getName());
+            checkBox.setTag(user.getUid());
+            usersLayout.addView(checkBox);
+            checkBoxes.add(checkBox);
         }
         scrollView.addView(usersLayout);
         layout.addView(scrollView);
@@ -526,29 +604,27 @@ public class ChatListActivity extends AppCompatActivity {
                 if (groupsTab != null) {
                     groupsTab.select();
                 }
-                loadChats();
             })
             .addOnFailureListener(e -> ErrorHandler.handleError(this, "Failed to create group", e));
     }
 
     // Show group info dialog
     public void showGroupInfoDialog(Chat chat) {
-        db.collection("users")
-            .whereIn("uid", chat.getParticipants())
-            .get()
-            .addOnSuccessListener(querySnapshot -> {
-                StringBuilder info = new StringBuilder();
-                info.append("Group Name: ").append(chat.getGroupName()).append("\n\nParticipants:\n");
-                for (QueryDocumentSnapshot doc : querySnapshot) {
-                    User user = doc.toObject(User.class);
-                    info.append("- ").append(user.getName()).append("\n");
-                }
-                new AlertDialog.Builder(this)
-                    .setTitle("Group Info")
-                    .setMessage(info.toString())
-                    .setPositiveButton("OK", null)
-                    .show();
-            });
+        ParticipantLoader.load(this, chat.getParticipants(), users -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            StringBuilder info = new StringBuilder();
+            info.append("Group Name: ").append(chat.getGroupName()).append("\n\nParticipants:\n");
+            for (User user : users) {
+                info.append("- ").append(user.getName()).append("\n");
+            }
+            new AlertDialog.Builder(this)
+                .setTitle("Group Info")
+                .setMessage(info.toString())
+                .setPositiveButton("OK", null)
+                .show();
+        });
     }
 
     private void showCurrentUserProfileMenu() {
@@ -582,8 +658,8 @@ public class ChatListActivity extends AppCompatActivity {
         TextView nameTextView = dialogView.findViewById(R.id.nameTextView);
         TextView emailTextView = dialogView.findViewById(R.id.emailTextView);
         
-        // Set profile image using TextDrawableHelper
-        profileImageView.setImageDrawable(TextDrawableHelper.create(this, user.getName()));
+        // Profile photo, with the letter avatar until it loads or if there is none
+        AvatarLoader.load(profileImageView, user.getPhotoUrl(), user.getName());
         
         nameTextView.setText(user.getName());
         emailTextView.setText(user.getEmail());
@@ -595,17 +671,4 @@ public class ChatListActivity extends AppCompatActivity {
                .setNegativeButton("Close", null)
                .show();
     }
-
-    private void setUserOnlineStatus(boolean isOnline) {
-        // Add a null check for the current user
-        if (mAuth.getCurrentUser() != null) {
-            String currentUserId = mAuth.getCurrentUser().getUid();
-            db.collection("users").document(currentUserId)
-                .update(
-                    "isOnline", isOnline,
-                    "lastSeen", System.currentTimeMillis()
-                );
-        }
-        // If mAuth.getCurrentUser() is null, we do nothing.
-    }
 }
\ No newline at end of file
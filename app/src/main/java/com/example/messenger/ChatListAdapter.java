@@ -8,193 +8,159 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
 import com.google.android.material.imageview.ShapeableImageView;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.example.messenger.utils.AvatarLoader;
 import com.example.messenger.utils.TextDrawableHelper;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+// Shows immutable ChatListItem rows. New lists are diffed off the main thread by an
+// AsyncListDiffer, and rows have stable ids, so only changed rows rebind and a chat moving
+// to the top is a single move.
+public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatViewHolder>
+        implements ListPreloader.PreloadModelProvider<ChatListItem> {
+    private static final DiffUtil.ItemCallback<ChatListItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatListItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatListItem oldItem, @NonNull ChatListItem newItem) {
+            return oldItem.chatId.equals(newItem.chatId);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatListItem oldItem, @NonNull ChatListItem newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
 
-public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatViewHolder> {
     private Context context;
-    private List<Chat> chatList;
-    private List<Chat> filteredList;
-    private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
-    private SimpleDateFormat dateFormat;
+    private final AsyncListDiffer<ChatListItem> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Map<String, Long> stableIds = new HashMap<>();
 
-    public ChatListAdapter(Context context, List<Chat> chatList) {
+    public ChatListAdapter(Context context) {
         this.context = context;
-        this.chatList = chatList;
-        this.filteredList = new ArrayList<>(chatList);
-        this.mAuth = FirebaseAuth.getInstance();
-        this.db = FirebaseFirestore.getInstance();
-        this.dateFormat = new SimpleDateFormat("MMM d, h:mm a", Locale.getDefault());
-    }
-
-    private String formatTime(Date date) {
-        return dateFormat.format(date);
+        setHasStableIds(true);
     }
 
     @NonNull
     @Override
     public ChatViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_chat, parent, false);
-        return new ChatViewHolder(view);
+        ChatViewHolder holder = new ChatViewHolder(view);
+        // Set click listener for the chat item
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            openChat(context, differ.getCurrentList().get(position));
+        });
+        return holder;
+    }
+
+    static void openChat(Context context, ChatListItem item) {
+        if (item.isGroup) {
+            Intent intent = new Intent(context, ChatActivity.class);
+            intent.putExtra("chatId", item.chatId);
+            intent.putExtra("isGroup", true);
+            intent.putExtra("groupName", item.groupName);
+            context.startActivity(intent);
+        } else if (item.otherUserId != null) {
+            Intent intent = new Intent(context, ChatActivity.class);
+            intent.putExtra("chatId", item.chatId);
+            intent.putExtra("otherUserId", item.otherUserId);
+            intent.putExtra("isGroup", false);
+            context.startActivity(intent);
+        }
     }
 
     @Override
     public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
-        Chat chat = filteredList.get(position);
-        String currentUserId = mAuth.getCurrentUser().getUid();
-
-        // Show group name if this is a group chat
-        if (chat.isGroup()) {
-            String displayName = chat.getGroupName();
-            if (displayName == null || displayName.isEmpty()) {
-                displayName = "Group";
-            }
-            holder.nameTextView.setText(displayName);
-            holder.profileImageView.setImageResource(R.drawable.ic_group);
-            holder.lastMessageTextView.setText(chat.getLastMessageText());
-            if (chat.getLastMessageTime() != null) {
-                holder.timeTextView.setText(formatTime(chat.getLastMessageTime().toDate()));
-            }
-            // Hide online status for groups
-            holder.onlineStatusIndicator.setVisibility(View.GONE);
-        } else {
-            // For individual chats, use the otherUserName (now always set)
-            holder.nameTextView.setText(chat.getOtherUserName());
-            holder.profileImageView.setImageDrawable(
-                TextDrawableHelper.create(context, chat.getOtherUserName() != null ? chat.getOtherUserName() : "?")
-            );
-            holder.lastMessageTextView.setText(chat.getLastMessageText());
-            if (chat.getLastMessageTime() != null) {
-                holder.timeTextView.setText(formatTime(chat.getLastMessageTime().toDate()));
-            }
+        ChatListItem item = differ.getCurrentList().get(position);
 
-            // Get the other user's ID
-            String otherUserId = null;
-            for (String participant : chat.getParticipants()) {
-                if (!participant.equals(currentUserId)) {
-                    otherUserId = participant;
-                    break;
-                }
-            }
+        holder.nameTextView.setText(item.displayName);
+        holder.lastMessageTextView.setText(item.previewText);
+        holder.timeTextView.setText(item.timeText);
 
-            // Check online status for the other user
-            if (otherUserId != null) {
-                String finalOtherUserId = otherUserId; // Needed for the lambda
-                db.collection("users").document(otherUserId)
-                    .addSnapshotListener((snapshot, error) -> {
-                        if (error != null || snapshot == null) {
-                            android.util.Log.e("ChatListAdapter", "Error listening for online status for user " + finalOtherUserId + ": " + (error != null ? error.getMessage() : "Snapshot is null"));
-                            return;
-                        }
-                        
-                        User otherUser = snapshot.toObject(User.class);
-                        if (otherUser != null) {
-                            boolean isOnline = otherUser.isOnline();
-                            // Show online status if user is online
-                            holder.onlineStatusIndicator.setVisibility(
-                                isOnline ? View.VISIBLE : View.GONE
-                            );
-                             android.util.Log.d("ChatListAdapter", "User " + finalOtherUserId + " isOnline: " + isOnline + ", setting visibility to: " + (isOnline ? "VISIBLE" : "GONE"));
-                        } else {
-                             android.util.Log.d("ChatListAdapter", "User " + finalOtherUserId + " object is null");
-                        }
-                    });
-            }
+        // Letter avatars come from a shared bitmap cache, so binding allocates no bitmaps once it is warm
+        if (item.isGroup && item.memberAvatarKeys.isEmpty()) {
+            AvatarLoader.clear(holder.profileImageView);
+            holder.profileImageView.setImageResource(R.drawable.ic_group);
+        } else if (item.isGroup) {
+            AvatarLoader.showDrawable(holder.profileImageView, TextDrawableHelper.createGroup(context, item.memberAvatarKeys));
+        } else {
+            AvatarLoader.load(holder.profileImageView, item.photoUrl, item.avatarKey);
         }
-
-        // Set click listener for the chat item
-        holder.itemView.setOnClickListener(v -> {
-            if (chat.isGroup()) {
-                Intent intent = new Intent(context, ChatActivity.class);
-                intent.putExtra("chatId", chat.getId());
-                intent.putExtra("isGroup", true);
-                intent.putExtra("groupName", chat.getGroupName());
-                context.startActivity(intent);
-            } else {
-                String otherUserId = null;
-                for (String participant : chat.getParticipants()) {
-                    if (!participant.equals(currentUserId)) {
-                        otherUserId = participant;
-                        break;
-                    }
-                }
-                if (otherUserId != null) {
-                    Intent intent = new Intent(context, ChatActivity.class);
-                    intent.putExtra("chatId", chat.getId());
-                    intent.putExtra("otherUserId", otherUserId);
-                    intent.putExtra("isGroup", false);
-                    context.startActivity(intent);
-                }
-            }
-        });
+        // Presence comes from the shared manager, which pushes changes to whichever row shows the user
+        holder.watchPresence(item.isGroup ? null : item.otherUserId);
 
         // Display unread count
-        Long unreadCount = chat.getUnreadCounts().get(currentUserId);
-        
-        // Add logging to check unread count value
-        android.util.Log.d("ChatListAdapter", "Chat ID: " + chat.getId() + ", Unread count for user " + currentUserId + ": " + unreadCount);
-
-        if (unreadCount != null && unreadCount > 0) {
+        if (item.unreadCount > 0) {
             holder.unreadCountTextView.setVisibility(View.VISIBLE);
-            holder.unreadCountTextView.setText(String.valueOf(unreadCount));
+            holder.unreadCountTextView.setText(String.valueOf(item.unreadCount));
         } else {
             holder.unreadCountTextView.setVisibility(View.GONE);
         }
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ChatViewHolder holder) {
+        holder.watchPresence(null);
+        AvatarLoader.clear(holder.profileImageView);
+    }
+
+    @NonNull
+    @Override
+    public List<ChatListItem> getPreloadItems(int position) {
+        List<ChatListItem> items = differ.getCurrentList();
+        if (position >= items.size() || items.get(position).photoUrl == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(items.get(position));
+    }
+
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull ChatListItem item) {
+        return AvatarLoader.request(Glide.with(context), context, item.photoUrl);
+    }
+
     @Override
     public int getItemCount() {
-        return filteredList.size();
+        return differ.getCurrentList().size();
     }
 
-    public void filter(String text) {
-        filteredList.clear();
-        if (text.isEmpty()) {
-            filteredList.addAll(chatList);
-        } else {
-            text = text.toLowerCase();
-            for (Chat chat : chatList) {
-                if (chat.isGroup()) {
-                    // For groups, search by group name
-                    if (chat.getGroupName() != null && 
-                        chat.getGroupName().toLowerCase().contains(text)) {
-                        filteredList.add(chat);
-                    }
-                } else {
-                    // For individual chats, search by user name
-                    if (chat.getOtherUserName() != null && 
-                        chat.getOtherUserName().toLowerCase().contains(text)) {
-                        filteredList.add(chat);
-                    }
-                }
-            }
+    // Chat ids are strings, so each one is given a long the first time it is seen
+    @Override
+    public long getItemId(int position) {
+        String chatId = differ.getCurrentList().get(position).chatId;
+        Long id = stableIds.get(chatId);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(chatId, id);
         }
-        notifyDataSetChanged();
+        return id;
     }
 
-    public void setChats(List<Chat> chats) {
-        this.chatList = new ArrayList<>(chats);
-        this.filteredList = new ArrayList<>(chatList);
-        notifyDataSetChanged();
+    // Search filtering happens upstream in ChatListViews, so this is always the list to show
+    public void setItems(List<ChatListItem> items) {
+        differ.submitList(items);
     }
 
-    static class ChatViewHolder extends RecyclerView.ViewHolder {
+    static class ChatViewHolder extends RecyclerView.ViewHolder implements PresenceManager.Observer {
         ShapeableImageView profileImageView;
         TextView nameTextView;
         TextView lastMessageTextView;
         TextView timeTextView;
         View onlineStatusIndicator;
         TextView unreadCountTextView;
+        String presenceUserId; // User whose presence this row currently holds, null for groups
 
         ChatViewHolder(View itemView) {
             super(itemView);
@@ -205,5 +171,27 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
             onlineStatusIndicator = itemView.findViewById(R.id.onlineStatusIndicator);
             unreadCountTextView = itemView.findViewById(R.id.unreadCountTextView);
         }
+
+        // Hands the previous user back to the manager, so a recycled row never shows a stale presence
+        void watchPresence(String userId) {
+            if (Objects.equals(userId, presenceUserId)) {
+                return;
+            }
+            if (presenceUserId != null) {
+                PresenceManager.getInstance().release(presenceUserId, this);
+            }
+            presenceUserId = userId;
+            onlineStatusIndicator.setVisibility(View.GONE);
+            if (userId != null) {
+                PresenceManager.getInstance().acquire(userId, this);
+            }
+        }
+
+        @Override
+        public void onPresenceChanged(String userId, boolean online) {
+            if (userId.equals(presenceUserId)) {
+                onlineStatusIndicator.setVisibility(online ? View.VISIBLE : View.GONE);
+            }
+        }
     }
 }
\ No newline at end of file
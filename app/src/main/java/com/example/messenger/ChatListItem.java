@@ -0,0 +1,97 @@
+package com.example.messenger;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Immutable row model for the chat list. Everything a row shows is worked out up front on the
+// snapshot worker, so binding only sets values and two items can be compared with equals()
+// to decide whether a row needs rebinding.
+public final class ChatListItem {
+    public final String chatId;
+    public final boolean isGroup;
+    public final String displayName;
+    public final String groupName; // Passed on to ChatActivity for group chats
+    public final String otherUserId; // Peer of a direct chat, also the key for its presence state
+    public final String previewText;
+    public final String timeText;
+    public final long unreadCount;
+    public final String avatarKey; // Name the text avatar is drawn from; null for groups
+    public final List<String> memberAvatarKeys; // Names a group avatar is drawn from; empty shows the group icon
+    public final String photoUrl; // Peer's profile photo in a direct chat; the letter avatar stands in while it loads
+
+    private ChatListItem(String chatId, boolean isGroup, String displayName, String groupName, String otherUserId,
+                         String previewText, String timeText, long unreadCount, String avatarKey,
+                         List<String> memberAvatarKeys, String photoUrl) {
+        this.chatId = chatId;
+        this.isGroup = isGroup;
+        this.displayName = displayName;
+        this.groupName = groupName;
+        this.otherUserId = otherUserId;
+        this.previewText = previewText;
+        this.timeText = timeText;
+        this.unreadCount = unreadCount;
+        this.avatarKey = avatarKey;
+        this.memberAvatarKeys = memberAvatarKeys;
+        this.photoUrl = photoUrl;
+    }
+
+    // The date format is not thread safe, callers pass one owned by their thread
+    public static ChatListItem from(Chat chat, String currentUserId, SimpleDateFormat timeFormat) {
+        String previewText = chat.getPreviewText(currentUserId) != null ? chat.getPreviewText(currentUserId) : "";
+        String timeText = chat.getPreviewTime(currentUserId) != null
+            ? timeFormat.format(chat.getPreviewTime(currentUserId).toDate())
+            : "";
+        Long unread = chat.getUnreadCounts() != null ? chat.getUnreadCounts().get(currentUserId) : null;
+        long unreadCount = unread != null ? unread : 0;
+
+        if (chat.isGroup()) {
+            String displayName = chat.getGroupName();
+            if (displayName == null || displayName.isEmpty()) {
+                displayName = "Group";
+            }
+            List<String> memberNames = chat.getMemberNames() != null
+                ? Collections.unmodifiableList(chat.getMemberNames())
+                : Collections.emptyList();
+            return new ChatListItem(chat.getId(), true, displayName, chat.getGroupName(), null,
+                previewText, timeText, unreadCount, null, memberNames, null);
+        }
+
+        String otherUserId = null;
+        if (chat.getParticipants() != null) {
+            for (String participant : chat.getParticipants()) {
+                if (!participant.equals(currentUserId)) {
+                    otherUserId = participant;
+                    break;
+                }
+            }
+        }
+        String displayName = chat.getOtherUserName() != null ? chat.getOtherUserName() : "?";
+        return new ChatListItem(chat.getId(), false, displayName, null, otherUserId,
+            previewText, timeText, unreadCount, displayName, Collections.emptyList(), chat.getOtherUserPhotoUrl());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChatListItem)) return false;
+        ChatListItem other = (ChatListItem) o;
+        return isGroup == other.isGroup
+            && unreadCount == other.unreadCount
+            && chatId.equals(other.chatId)
+            && Objects.equals(displayName, other.displayName)
+            && Objects.equals(groupName, other.groupName)
+            && Objects.equals(otherUserId, other.otherUserId)
+            && Objects.equals(previewText, other.previewText)
+            && Objects.equals(timeText, other.timeText)
+            && Objects.equals(avatarKey, other.avatarKey)
+            && memberAvatarKeys.equals(other.memberAvatarKeys)
+            && Objects.equals(photoUrl, other.photoUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(chatId, isGroup, displayName, groupName, otherUserId, previewText, timeText, unreadCount, avatarKey, memberAvatarKeys, photoUrl);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.messenger;
+
+import com.google.firebase.Timestamp;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// The chat list tabs (All / Groups / Favourites) kept as sorted views that are patched one
+// chat at a time as snapshot changes arrive, instead of being refiltered from scratch. Chats
+// are found by id through a map and placed by binary search on (lastMessageTime desc, id).
+// Not thread safe: owned by the snapshot worker, which publishes one immutable copy of each
+// changed view per snapshot. Row models are built once per changed chat, here on the worker.
+// While a search query is set, each published tab holds only the chats matching it.
+public class ChatListViews {
+    public static final String TAB_ALL = "All";
+    public static final String TAB_GROUPS = "Groups";
+    public static final String TAB_FAVOURITES = "Favourites";
+
+    // Newest first; chats without a message time go last, ties are broken by id
+    private static final Comparator<Chat> ORDER = (a, b) -> {
+        Timestamp ta = a.getLastMessageTime();
+        Timestamp tb = b.getLastMessageTime();
+        if (ta == null || tb == null) {
+            if (ta != tb) {
+                return ta == null ? 1 : -1;
+            }
+        } else {
+            int byTime = tb.compareTo(ta);
+            if (byTime != 0) {
+                return byTime;
+            }
+        }
+        return a.getId().compareTo(b.getId());
+    };
+
+    private final String currentUserId;
+    private final Map<String, Chat> chatsById = new HashMap<>();
+    private final Map<String, ChatListItem> itemsById = new HashMap<>();
+    private final ChatSearchIndex searchIndex = new ChatSearchIndex();
+    private String query = "";
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("MMM d, h:mm a", Locale.getDefault());
+    private final View all = new View();
+    private final View groups = new View();
+    private final View favourites = new View();
+
+    public ChatListViews(String currentUserId) {
+        this.currentUserId = currentUserId;
+    }
+
+    public void upsert(Chat chat) {
+        Chat previous = chatsById.put(chat.getId(), chat);
+        if (previous != null) {
+            removeFromViews(previous);
+        }
+        ChatListItem item = ChatListItem.from(chat, currentUserId, timeFormat);
+        itemsById.put(chat.getId(), item);
+        searchIndex.put(chat.getId(), item.displayName);
+        all.insert(chat);
+        if (chat.isGroup()) {
+            groups.insert(chat);
+        }
+        if (isFavourite(chat)) {
+            favourites.insert(chat);
+        }
+    }
+
+    public void remove(String chatId) {
+        Chat previous = chatsById.remove(chatId);
+        itemsById.remove(chatId);
+        searchIndex.remove(chatId);
+        if (previous != null) {
+            removeFromViews(previous);
+        }
+    }
+
+    public void clear() {
+        chatsById.clear();
+        itemsById.clear();
+        searchIndex.clear();
+        all.clear();
+        groups.clear();
+        favourites.clear();
+    }
+
+    public Chat chat(String chatId) {
+        return chatsById.get(chatId);
+    }
+
+    public ChatListItem item(String chatId) {
+        return itemsById.get(chatId);
+    }
+
+    public void setQuery(String query) {
+        this.query = query != null ? query : "";
+    }
+
+    // Immutable copies of every tab; views that did not change since the last call are reused
+    public Map<String, List<ChatListItem>> publish() {
+        Set<String> matches = searchIndex.search(query);
+        Map<String, List<ChatListItem>> published = new HashMap<>();
+        published.put(TAB_ALL, matches == null ? all.publish() : all.filter(matches));
+        published.put(TAB_GROUPS, matches == null ? groups.publish() : groups.filter(matches));
+        published.put(TAB_FAVOURITES, matches == null ? favourites.publish() : favourites.filter(matches));
+        return Collections.unmodifiableMap(published);
+    }
+
+    private void removeFromViews(Chat chat) {
+        // The old object still carries the sort key it was inserted with
+        all.delete(chat);
+        groups.delete(chat);
+        favourites.delete(chat);
+    }
+
+    private boolean isFavourite(Chat chat) {
+        return chat.getFavourite() != null && chat.getFavourite().contains(currentUserId);
+    }
+
+    private class View {
+        private final List<Chat> chats = new ArrayList<>();
+        private List<ChatListItem> published = Collections.emptyList();
+        private boolean dirty = false;
+
+        void insert(Chat chat) {
+            int index = Collections.binarySearch(chats, chat, ORDER);
+            if (index < 0) {
+                chats.add(-index - 1, chat);
+            } else {
+                chats.set(index, chat);
+            }
+            dirty = true;
+        }
+
+        void delete(Chat chat) {
+            int index = Collections.binarySearch(chats, chat, ORDER);
+            if (index >= 0) {
+                chats.remove(index);
+                dirty = true;
+            }
+        }
+
+        void clear() {
+            chats.clear();
+            dirty = true;
+        }
+
+        // Matching chats in view order; sorting the matches keeps this proportional to their count
+        List<ChatListItem> filter(Set<String> matches) {
+            List<Chat> matched = new ArrayList<>();
+            for (String chatId : matches) {
+                Chat chat = chatsById.get(chatId);
+                if (chat != null && contains(chat)) {
+                    matched.add(chat);
+                }
+            }
+            Collections.sort(matched, ORDER);
+            List<ChatListItem> items = new ArrayList<>(matched.size());
+            for (Chat chat : matched) {
+                items.add(itemsById.get(chat.getId()));
+            }
+            return Collections.unmodifiableList(items);
+        }
+
+        private boolean contains(Chat chat) {
+            return Collections.binarySearch(chats, chat, ORDER) >= 0;
+        }
+
+        List<ChatListItem> publish() {
+            if (dirty) {
+                List<ChatListItem> items = new ArrayList<>(chats.size());
+                for (Chat chat : chats) {
+                    items.add(itemsById.get(chat.getId()));
+                }
+                published = Collections.unmodifiableList(items);
+                dirty = false;
+            }
+            return published;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.messenger;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+// Search index over chat names (group name or the other user's name). Names are stored as
+// normalized keys, folded for case and diacritics, so "jose" finds "José". Short queries
+// match the start of any word through a sorted token map. Queries of three or more
+// characters match anywhere in the name: candidates come from trigram postings and are then
+// checked against the key. Updated one chat at a time; not thread safe, owned by the
+// snapshot worker together with ChatListViews.
+public class ChatSearchIndex {
+    private static final int GRAM = 3;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final Map<String, String> keysById = new HashMap<>();
+    private final TreeMap<String, Set<String>> tokens = new TreeMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return SPACES.matcher(MARKS.matcher(decomposed).replaceAll("")).replaceAll(" ")
+            .trim()
+            .toLowerCase(Locale.ROOT);
+    }
+
+    public void put(String chatId, String name) {
+        String key = normalize(name);
+        String previous = keysById.get(chatId);
+        if (key.equals(previous)) {
+            return; // Most updates are new messages, not renames
+        }
+        remove(chatId);
+        keysById.put(chatId, key);
+        for (String token : tokensOf(key)) {
+            add(tokens, token, chatId);
+        }
+        for (String gram : gramsOf(key)) {
+            add(trigrams, gram, chatId);
+        }
+    }
+
+    public void remove(String chatId) {
+        String key = keysById.remove(chatId);
+        if (key == null) {
+            return;
+        }
+        for (String token : tokensOf(key)) {
+            delete(tokens, token, chatId);
+        }
+        for (String gram : gramsOf(key)) {
+            delete(trigrams, gram, chatId);
+        }
+    }
+
+    public void clear() {
+        keysById.clear();
+        tokens.clear();
+        trigrams.clear();
+    }
+
+    // Ids of the chats matching the query; null means the query is empty and everything matches
+    public Set<String> search(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        Set<String> matches = new HashSet<>();
+        if (normalized.length() < GRAM) {
+            for (Set<String> ids : tokens.subMap(normalized, normalized + Character.MAX_VALUE).values()) {
+                matches.addAll(ids);
+            }
+            return matches;
+        }
+
+        // Start from the rarest trigram, then confirm the substring on the stored key
+        Set<String> smallest = null;
+        for (String gram : gramsOf(normalized)) {
+            Set<String> ids = trigrams.get(gram);
+            if (ids == null) {
+                return matches;
+            }
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        for (String chatId : smallest) {
+            if (keysById.get(chatId).contains(normalized)) {
+                matches.add(chatId);
+            }
+        }
+        return matches;
+    }
+
+    private static List<String> tokensOf(String key) {
+        List<String> result = new ArrayList<>();
+        for (String token : key.split(" ")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> gramsOf(String key) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            result.add(key.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static void add(Map<String, Set<String>> postings, String term, String chatId) {
+        Set<String> ids = postings.get(term);
+        if (ids == null) {
+            ids = new HashSet<>();
+            postings.put(term, ids);
+        }
+        ids.add(chatId);
+    }
+
+    private static void delete(Map<String, Set<String>> postings, String term, String chatId) {
+        Set<String> ids = postings.get(term);
+        if (ids != null && ids.remove(chatId) && ids.isEmpty()) {
+            postings.remove(term);
+        }
+    }
+}
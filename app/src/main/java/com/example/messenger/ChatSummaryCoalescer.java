@@ -0,0 +1,247 @@
+package com.example.messenger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.messenger.utils.ErrorHandler;
+
+// Writes the chat summary (preview text, time and unread increments) separately from the
+// messages, at most once per WINDOW_MS per chat. Changes within the window are merged and
+// written together; pending ones are saved to SharedPreferences until handed to Firestore.
+public class ChatSummaryCoalescer {
+    private static final String TAG = "ChatSummaryCoalescer";
+    private static final String PREFS_NAME = "chat_summary_pending";
+    private static final String KEY_PENDING = "pending";
+    private static final long WINDOW_MS = 1000; // Firestore sustains about one write per second per document
+
+    private static ChatSummaryCoalescer instance;
+
+    private final SharedPreferences prefs;
+    private final FirebaseFirestore db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Pending> pending = new LinkedHashMap<>(); // Main thread only
+    private final Map<String, Long> lastWriteAt = new HashMap<>();
+
+    // Counters for how much the coalescing saves
+    private int messagesSummarized = 0;
+    private int summaryWrites = 0;
+
+    public static synchronized ChatSummaryCoalescer getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatSummaryCoalescer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ChatSummaryCoalescer(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        db = FirebaseFirestore.getInstance();
+        load();
+    }
+
+    // Records messages that were just sent. latestTime is the newest message's server timestamp,
+    // or null when it is not known yet; participants may be null when they are not known.
+    public void add(String chatId, String senderId, String latestMessageId, String latestText, Timestamp latestTime,
+                    int messageCount, List<String> participants) {
+        Pending summary = pending.get(chatId);
+        if (summary == null) {
+            summary = new Pending();
+            pending.put(chatId, summary);
+        }
+        summary.merge(senderId, latestMessageId, latestText, latestTime, messageCount, participants);
+        messagesSummarized += messageCount;
+        save();
+        schedule(chatId);
+    }
+
+    // A message deleted for everyone must not come back as the preview when the pending
+    // summary is written; its unread increments are kept
+    public void onMessageDeleted(String chatId, String messageId) {
+        Pending summary = pending.get(chatId);
+        if (summary != null && summary.forgetPreview(messageId)) {
+            save();
+        }
+    }
+
+    // Drops pending summaries, e.g. on sign-out; scheduled writes find nothing left to write
+    public void clear() {
+        pending.clear();
+        save();
+    }
+
+    // Called once at startup to write summaries left over from a previous process
+    public void resume() {
+        for (String chatId : pending.keySet()) {
+            schedule(chatId);
+        }
+    }
+
+    public int getMessagesSummarized() {
+        return messagesSummarized;
+    }
+
+    public int getSummaryWrites() {
+        return summaryWrites;
+    }
+
+    // Messages per summary write; 1.0 means nothing was coalesced
+    public double getCoalescingRatio() {
+        return summaryWrites == 0 ? 0 : (double) messagesSummarized / summaryWrites;
+    }
+
+    // The first change in a quiet chat is written right away, later ones when the window ends
+    private void schedule(String chatId) {
+        Pending summary = pending.get(chatId);
+        if (summary == null || summary.scheduled) {
+            return;
+        }
+        Long last = lastWriteAt.get(chatId);
+        long delay = last == null ? 0 : Math.max(0, last + WINDOW_MS - System.currentTimeMillis());
+        summary.scheduled = true;
+        handler.postDelayed(() -> write(chatId), delay);
+    }
+
+    private void write(String chatId) {
+        Pending summary = pending.remove(chatId);
+        if (summary == null) {
+            return;
+        }
+        // Removed before the write is handed over, so a restart cannot apply the increments twice
+        save();
+        lastWriteAt.put(chatId, System.currentTimeMillis());
+        summaryWrites++;
+
+        Map<String, Object> chatUpdates = new HashMap<>();
+        if (summary.text != null) {
+            // The message's own time, so chat order follows message order rather than write order
+            chatUpdates.put("lastMessageText", summary.text);
+            chatUpdates.put("lastMessageTime", summary.time != null ? summary.time : FieldValue.serverTimestamp());
+        }
+        for (Map.Entry<String, Long> unread : summary.unread.entrySet()) {
+            chatUpdates.put("unreadCounts." + unread.getKey(), FieldValue.increment(unread.getValue()));
+        }
+        if (chatUpdates.isEmpty()) {
+            return; // Only a deleted message's preview was pending
+        }
+        db.collection("chats").document(chatId).update(chatUpdates)
+            .addOnFailureListener(e -> ErrorHandler.handleError(null, "Error updating chat summary", e));
+        Log.d(TAG, "Wrote summary of " + summary.messages + " message(s) for chat " + chatId
+            + "; messages " + messagesSummarized + ", writes " + summaryWrites + ", ratio " + getCoalescingRatio());
+    }
+
+    private void load() {
+        String json = prefs.getString(KEY_PENDING, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONObject chats = new JSONObject(json);
+            for (Iterator<String> ids = chats.keys(); ids.hasNext(); ) {
+                String chatId = ids.next();
+                pending.put(chatId, Pending.fromJson(chats.getJSONObject(chatId)));
+            }
+        } catch (JSONException e) {
+            ErrorHandler.handleError(null, "Discarding unreadable chat summaries", e);
+            prefs.edit().remove(KEY_PENDING).apply();
+        }
+    }
+
+    private void save() {
+        JSONObject chats = new JSONObject();
+        try {
+            for (Map.Entry<String, Pending> summary : pending.entrySet()) {
+                chats.put(summary.getKey(), summary.getValue().toJson());
+            }
+        } catch (JSONException e) {
+            ErrorHandler.handleError(null, "Error saving chat summaries", e);
+            return;
+        }
+        prefs.edit().putString(KEY_PENDING, chats.toString()).apply();
+    }
+
+    static class Pending {
+        String messageId; // Message the preview shows; null once that message was deleted
+        String text;
+        Timestamp time; // Null when the message's server timestamp was not known
+        int messages;
+        Map<String, Long> unread = new HashMap<>(); // Increment per participant
+        boolean scheduled; // Not saved; a new process schedules everything again
+
+        // The newest message provides the preview, whatever order the batches are reported in.
+        // A message without a known time was only just written, so it counts as the newest.
+        void merge(String senderId, String latestMessageId, String latestText, Timestamp latestTime,
+                   int messageCount, List<String> participants) {
+            if (text == null || latestTime == null || time == null || latestTime.compareTo(time) >= 0) {
+                messageId = latestMessageId;
+                text = latestText;
+                time = latestTime;
+            }
+            messages += messageCount;
+            if (participants != null) {
+                for (String participantId : participants) {
+                    if (!participantId.equals(senderId)) {
+                        Long count = unread.get(participantId);
+                        unread.put(participantId, (count != null ? count : 0) + messageCount);
+                    }
+                }
+            }
+        }
+
+        boolean forgetPreview(String deletedMessageId) {
+            if (messageId == null || !messageId.equals(deletedMessageId)) {
+                return false;
+            }
+            messageId = null;
+            text = null;
+            time = null;
+            return true;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("messageId", messageId);
+            json.put("text", text);
+            if (time != null) {
+                json.put("seconds", time.getSeconds());
+                json.put("nanos", time.getNanoseconds());
+            }
+            json.put("messages", messages);
+            json.put("unread", new JSONObject(unread));
+            return json;
+        }
+
+        static Pending fromJson(JSONObject json) throws JSONException {
+            Pending summary = new Pending();
+            summary.messageId = json.optString("messageId", null);
+            summary.text = json.optString("text", null);
+            if (json.has("seconds")) {
+                summary.time = new Timestamp(json.getLong("seconds"), json.optInt("nanos", 0));
+            }
+            summary.messages = json.optInt("messages", 0);
+            JSONObject unread = json.optJSONObject("unread");
+            if (unread != null) {
+                for (Iterator<String> ids = unread.keys(); ids.hasNext(); ) {
+                    String participantId = ids.next();
+                    summary.unread.put(participantId, unread.getLong(participantId));
+                }
+            }
+            return summary;
+        }
+    }
+}
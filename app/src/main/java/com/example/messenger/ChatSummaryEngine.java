@@ -0,0 +1,142 @@
+package com.example.messenger;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Keeps the chat preview right when messages are deleted. The replacement preview is worked
+// out from the loaded messages before anything is written (with at most one cursor query when
+// nothing suitable is loaded), and the delete and the preview change go out in one batch.
+// Deleting for me only writes a per-user preview override; the shared summary that every
+// participant sees changes only when a message is deleted for everyone, and then a summary
+// still waiting in ChatSummaryCoalescer is told first so it cannot bring the message back.
+public class ChatSummaryEngine {
+    private static final int FALLBACK_LOOKUP_LIMIT = 20;
+
+    private final FirebaseFirestore db;
+    private final String chatId;
+    private final MessageStore messageStore;
+    private final ChatSummaryCoalescer summaries;
+    private Timestamp chatLastMessageTime; // Time of the shared preview, kept current by ChatActivity
+
+    public ChatSummaryEngine(String chatId, MessageStore messageStore, ChatSummaryCoalescer summaries) {
+        this.db = FirebaseFirestore.getInstance();
+        this.chatId = chatId;
+        this.messageStore = messageStore;
+        this.summaries = summaries;
+    }
+
+    public void setChatLastMessageTime(Timestamp lastMessageTime) {
+        chatLastMessageTime = lastMessageTime;
+    }
+
+    public Task<Void> deleteForMe(Message message, String userId) {
+        boolean wasLatest = isLatestLoaded(message);
+        // Resolve the replacement now, the local write is about to remove the message from the store
+        Task<Message> replacement = wasLatest
+            ? resolveReplacement(message, userId)
+            : Tasks.forResult(null);
+
+        return replacement.continueWithTask(task -> {
+            WriteBatch batch = db.batch();
+            batch.update(messageRef(message), "deletedFor", FieldValue.arrayUnion(userId));
+            if (wasLatest) {
+                Chat.PreviewOverride override = new Chat.PreviewOverride();
+                Message latest = task.isSuccessful() ? task.getResult() : null;
+                override.setText(latest != null ? latest.getPreviewText() : "");
+                override.setTime(latest != null ? latest.getTimestamp() : null);
+                // The override stays in effect until a message newer than the hidden one arrives
+                override.setHiddenUpTo(newest(chatLastMessageTime, message.getTimestamp()));
+                batch.update(chatRef(), "previewOverrides." + userId, override);
+            }
+            return batch.commit();
+        });
+    }
+
+    public Task<Void> deleteForEveryone(Message message) {
+        boolean wasLatest = isLatestLoaded(message);
+        Task<Message> replacement = wasLatest
+            ? resolveReplacement(message, null)
+            : Tasks.forResult(null);
+
+        return replacement.continueWithTask(task -> {
+            summaries.onMessageDeleted(chatId, message.getId());
+            WriteBatch batch = db.batch();
+            batch.delete(messageRef(message));
+            if (wasLatest) {
+                Message latest = task.isSuccessful() ? task.getResult() : null;
+                Map<String, Object> chatUpdates = new HashMap<>();
+                if (latest != null) {
+                    chatUpdates.put("lastMessageText", latest.getPreviewText());
+                    chatUpdates.put("lastMessageTime", latest.getTimestamp());
+                } else {
+                    // No messages left, clear last message fields
+                    chatUpdates.put("lastMessageText", "");
+                    chatUpdates.put("lastMessageTime", null);
+                }
+                batch.update(chatRef(), chatUpdates);
+            }
+            return batch.commit();
+        });
+    }
+
+    // The newest loaded message is the newest in the chat, since the live window covers the latest page
+    private boolean isLatestLoaded(Message message) {
+        int index = messageStore.indexOf(message.getId());
+        return index != -1 && index == messageStore.size() - 1;
+    }
+
+    // Latest message before the deleted one that the user (or everyone, if userId is null) can see
+    private Task<Message> resolveReplacement(Message deleted, String userId) {
+        for (int i = messageStore.size() - 1; i >= 0; i--) {
+            Message candidate = messageStore.get(i);
+            if (!candidate.getId().equals(deleted.getId()) && !candidate.isPending()
+                    && (userId == null || !candidate.isDeletedFor(userId))) {
+                return Tasks.forResult(candidate);
+            }
+        }
+
+        // Nothing suitable is loaded, look at one page of history older than the deleted message
+        Query query = db.collection("chats").document(chatId)
+            .collection("messages")
+            .orderBy("timestamp", Query.Direction.DESCENDING);
+        if (deleted.getTimestamp() != null) {
+            query = query.startAfter(deleted.getTimestamp());
+        }
+        return query.limit(FALLBACK_LOOKUP_LIMIT).get().continueWith(task -> {
+            if (!task.isSuccessful()) {
+                return null;
+            }
+            for (QueryDocumentSnapshot doc : task.getResult()) {
+                Message candidate = doc.toObject(Message.class);
+                if (!doc.getId().equals(deleted.getId()) && (userId == null || !candidate.isDeletedFor(userId))) {
+                    return candidate;
+                }
+            }
+            return null;
+        });
+    }
+
+    private static Timestamp newest(Timestamp a, Timestamp b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private DocumentReference chatRef() {
+        return db.collection("chats").document(chatId);
+    }
+
+    private DocumentReference messageRef(Message message) {
+        return chatRef().collection("messages").document(message.getId());
+    }
+}
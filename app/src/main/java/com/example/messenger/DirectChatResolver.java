@@ -0,0 +1,132 @@
+package com.example.messenger;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Finds or creates the one-to-one chat between two users. A direct chat's document id is
+// derived from the sorted pair of uids, so finding it is a single document read and two
+// users opening a chat with each other at once end up in the same document. Pairs already
+// seen (from the chat list or an earlier open) are answered from memory without a read.
+// Chats created before the fixed ids have random ids, so before a new chat is created one
+// query on the exact participants pair checks for such a chat, and it is used if found.
+public class DirectChatResolver {
+    private static final String TAG = "DirectChatResolver";
+    private static final String ID_PREFIX = "dm_";
+
+    private static DirectChatResolver instance;
+
+    private final FirebaseFirestore db;
+    private final Map<String, String> chatIdsByPair = new ConcurrentHashMap<>(); // Written from the snapshot worker too
+
+    public static synchronized DirectChatResolver getInstance() {
+        if (instance == null) {
+            instance = new DirectChatResolver();
+        }
+        return instance;
+    }
+
+    private DirectChatResolver() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    public static String chatIdFor(String userId, String otherUserId) {
+        return ID_PREFIX + pairKey(userId, otherUserId);
+    }
+
+    // Records the direct chat between two users, e.g. one seen in the chat list
+    public void remember(String userId, String otherUserId, String chatId) {
+        chatIdsByPair.put(pairKey(userId, otherUserId), chatId);
+    }
+
+    // The id of the direct chat between the two users, creating the chat if there is none.
+    // userNames (optional) is stored on a newly created chat for the chat list to show.
+    public Task<String> resolve(String userId, String otherUserId, Map<String, String> userNames) {
+        String key = pairKey(userId, otherUserId);
+        String known = chatIdsByPair.get(key);
+        if (known != null) {
+            return Tasks.forResult(known);
+        }
+
+        DocumentReference chatRef = db.collection("chats").document(ID_PREFIX + key);
+        return chatRef.get().continueWithTask(task -> {
+            if (!task.isSuccessful()) {
+                throw task.getException();
+            }
+            if (task.getResult().exists()) {
+                return Tasks.forResult(chatRef.getId());
+            }
+            return findLegacyChat(userId, otherUserId).continueWithTask(legacy -> {
+                if (!legacy.isSuccessful()) {
+                    throw legacy.getException();
+                }
+                if (legacy.getResult() != null) {
+                    return Tasks.forResult(legacy.getResult());
+                }
+                return db.runTransaction(transaction -> {
+                    DocumentSnapshot existing = transaction.get(chatRef);
+                    if (!existing.exists()) {
+                        transaction.set(chatRef, newChatData(userId, otherUserId, userNames));
+                    }
+                    return chatRef.getId();
+                });
+            });
+        }).addOnSuccessListener(chatId -> chatIdsByPair.put(key, chatId))
+            .addOnFailureListener(e -> Log.e(TAG, "Error resolving direct chat " + chatRef.getId(), e));
+    }
+
+    // A direct chat with a random id, from before the fixed ids; older code stored the pair in either order
+    private Task<String> findLegacyChat(String userId, String otherUserId) {
+        return db.collection("chats")
+            .whereIn("participants", Arrays.asList(
+                Arrays.asList(userId, otherUserId), Arrays.asList(otherUserId, userId)))
+            .get()
+            .continueWith(task -> {
+                if (!task.isSuccessful()) {
+                    throw task.getException();
+                }
+                for (QueryDocumentSnapshot doc : task.getResult()) {
+                    if (!Boolean.TRUE.equals(doc.getBoolean("group"))) {
+                        return doc.getId();
+                    }
+                }
+                return null;
+            });
+    }
+
+    private static Map<String, Object> newChatData(String userId, String otherUserId, Map<String, String> userNames) {
+        List<String> participants = sorted(userId, otherUserId);
+        Map<String, Object> chat = new HashMap<>();
+        chat.put("participants", participants);
+        chat.put("lastMessageText", "");
+        // The chat list is ordered by this field, so the new chat needs it to show up there
+        chat.put("lastMessageTime", FieldValue.serverTimestamp());
+        if (userNames != null) {
+            chat.put("userNames", userNames);
+        }
+        return chat;
+    }
+
+    private static String pairKey(String userId, String otherUserId) {
+        List<String> pair = sorted(userId, otherUserId);
+        return pair.get(0) + "_" + pair.get(1);
+    }
+
+    private static List<String> sorted(String userId, String otherUserId) {
+        return userId.compareTo(otherUserId) <= 0
+            ? Arrays.asList(userId, otherUserId)
+            : Arrays.asList(otherUserId, userId);
+    }
+}
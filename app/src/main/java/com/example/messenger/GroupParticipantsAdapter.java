@@ -10,21 +10,25 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
 import com.google.android.material.imageview.ShapeableImageView;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.example.messenger.utils.TextDrawableHelper;
+import com.example.messenger.utils.ErrorHandler;
+import com.example.messenger.utils.AvatarLoader;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class GroupParticipantsAdapter extends RecyclerView.Adapter<GroupParticipantsAdapter.ParticipantViewHolder> {
+public class GroupParticipantsAdapter extends RecyclerView.Adapter<GroupParticipantsAdapter.ParticipantViewHolder>
+        implements ListPreloader.PreloadModelProvider<User> {
     private List<User> participants;
     private Context context;
-    private FirebaseFirestore db;
     private FirebaseAuth mAuth;
 
     public GroupParticipantsAdapter(List<User> participants) {
         this.participants = participants;
-        this.db = FirebaseFirestore.getInstance();
         this.mAuth = FirebaseAuth.getInstance();
     }
 
@@ -41,9 +45,7 @@ public class GroupParticipantsAdapter extends RecyclerView.Adapter<GroupParticip
         User participant = participants.get(position);
         holder.nameTextView.setText(participant.getName());
         
-        holder.profileImageView.setImageDrawable(
-            TextDrawableHelper.create(context, participant.getName())
-        );
+        AvatarLoader.load(holder.profileImageView, participant.getPhotoUrl(), participant.getName());
 
         // Set click listener for the participant item
         holder.itemView.setOnClickListener(v -> {
@@ -55,51 +57,51 @@ public class GroupParticipantsAdapter extends RecyclerView.Adapter<GroupParticip
                 return;
             }
 
-            // Find or create chat between current user and selected participant
-            db.collection("chats")
-                .whereArrayContains("participants", currentUserId)
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    String chatId = null;
-                    for (var doc : querySnapshot.getDocuments()) {
-                        List<String> chatParticipants = (List<String>) doc.get("participants");
-                        if (chatParticipants != null && 
-                            chatParticipants.size() == 2 && 
-                            chatParticipants.contains(participantId)) {
-                            chatId = doc.getId();
-                            break;
-                        }
-                    }
-
-                    // If chat exists, open it
-                    if (chatId != null) {
-                        Intent intent = new Intent(context, ChatActivity.class);
-                        intent.putExtra("chatId", chatId);
-                        intent.putExtra("otherUserId", participantId);
-                        intent.putExtra("isGroup", false);
-                        context.startActivity(intent);
-                    } else {
-                        // Create new chat
-                        List<String> newParticipants = List.of(currentUserId, participantId);
-                        db.collection("chats")
-                            .add(new Chat(newParticipants, "", null))
-                            .addOnSuccessListener(docRef -> {
-                                Intent intent = new Intent(context, ChatActivity.class);
-                                intent.putExtra("chatId", docRef.getId());
-                                intent.putExtra("otherUserId", participantId);
-                                intent.putExtra("isGroup", false);
-                                context.startActivity(intent);
-                            });
-                    }
-                });
+            // Find or create chat between current user and selected participant; the current
+            // user is in this list too, so both names are at hand for a new chat
+            Map<String, String> userNames = new HashMap<>();
+            for (User user : participants) {
+                if (user.getUid().equals(currentUserId) || user.getUid().equals(participantId)) {
+                    userNames.put(user.getUid(), user.getName());
+                }
+            }
+            DirectChatResolver.getInstance().resolve(currentUserId, participantId, userNames)
+                .addOnSuccessListener(chatId -> {
+                    Intent intent = new Intent(context, ChatActivity.class);
+                    intent.putExtra("chatId", chatId);
+                    intent.putExtra("otherUserId", participantId);
+                    intent.putExtra("isGroup", false);
+                    context.startActivity(intent);
+                })
+                .addOnFailureListener(e -> ErrorHandler.handleError(context, "Error opening chat", e));
         });
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ParticipantViewHolder holder) {
+        AvatarLoader.clear(holder.profileImageView);
+    }
+
     @Override
     public int getItemCount() {
         return participants.size();
     }
 
+    @NonNull
+    @Override
+    public List<User> getPreloadItems(int position) {
+        // The context arrives with the first view holder, before which there is nothing to preload for
+        if (context == null || position >= participants.size() || participants.get(position).getPhotoUrl() == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(participants.get(position));
+    }
+
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull User user) {
+        return AvatarLoader.request(Glide.with(context), context, user.getPhotoUrl());
+    }
+
     static class ParticipantViewHolder extends RecyclerView.ViewHolder {
         ShapeableImageView profileImageView;
         TextView nameTextView;
@@ -1,14 +1,23 @@
 package com.example.messenger;
 
 import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Exclude;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Message {
     private String id;
     private String chatId;
     private String senderId;
     private String text;
+    private String imageUrl; // Set for image messages; the text is then an optional caption
+    private String thumbnailUrl; // Small preview shown while the full image loads
+    private int imageWidth;
+    private int imageHeight;
     private Timestamp timestamp;
     private String status; // "sent", "delivered", or "read"
+    private List<String> deletedFor = new ArrayList<>(); // User IDs that deleted this message for themselves
+    private boolean pending; // Local only: written on this device but not yet confirmed by the server
 
     public Message() {
         // Required empty constructor for Firestore
@@ -53,6 +62,56 @@ public class Message {
         this.text = text;
     }
 
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public void setImageWidth(int imageWidth) {
+        this.imageWidth = imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public void setImageHeight(int imageHeight) {
+        this.imageHeight = imageHeight;
+    }
+
+    @Exclude
+    public boolean hasImage() {
+        return imageUrl != null;
+    }
+
+    // Text for chat previews; image messages without a caption show as "Photo"
+    @Exclude
+    public String getPreviewText() {
+        return previewText(text, hasImage());
+    }
+
+    public static String previewText(String text, boolean hasImage) {
+        if (hasImage && (text == null || text.isEmpty())) {
+            return "Photo";
+        }
+        return text;
+    }
+
     public Timestamp getTimestamp() {
         return timestamp;
     }
@@ -68,4 +127,26 @@ public class Message {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public List<String> getDeletedFor() {
+        return deletedFor;
+    }
+
+    public void setDeletedFor(List<String> deletedFor) {
+        this.deletedFor = deletedFor;
+    }
+
+    public boolean isDeletedFor(String userId) {
+        return deletedFor != null && deletedFor.contains(userId);
+    }
+
+    @Exclude
+    public boolean isPending() {
+        return pending;
+    }
+
+    @Exclude
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
 }
\ No newline at end of file
@@ -1,45 +1,64 @@
 package com.example.messenger;
 
 import android.content.Context;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.example.messenger.utils.ErrorHandler;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
-    private static final int VIEW_TYPE_SENT = 1;
-    private static final int VIEW_TYPE_RECEIVED = 2;
+    private static final int VIEW_TYPE_SENT = MessageRenderCache.VIEW_TYPE_SENT;
+    private static final int VIEW_TYPE_RECEIVED = MessageRenderCache.VIEW_TYPE_RECEIVED;
+    private static final int IMAGE_MAX_WIDTH_DP = 240;
+    private static final int IMAGE_MAX_HEIGHT_DP = 320;
 
     private Context context;
-    private List<Message> messageList;
+    private MessageStore messageStore;
     private String currentUserId;
-    private FirebaseFirestore db;
     private String chatId;
-
-    public MessageAdapter(Context context, List<Message> messageList, String chatId) {
+    private ReadReceiptAggregator readReceipts;
+    private MessageRenderCache renderCache;
+    private ChatSummaryEngine summaryEngine;
+    private Set<String> expandedMessageIds = new HashSet<>();
+    private SparseArray<PrecomputedTextCompat.Params> textParamsByViewType = new SparseArray<>();
+    private Timestamp othersReadWatermark; // Everything up to here has been read by all other participants
+    private final int imageMaxWidthPx;
+    private final int imageMaxHeightPx;
+
+    public MessageAdapter(Context context, MessageStore messageStore, String chatId,
+                          ReadReceiptAggregator readReceipts, MessageRenderCache renderCache,
+                          ChatSummaryEngine summaryEngine) {
         this.context = context;
-        this.messageList = messageList;
+        this.messageStore = messageStore;
         this.currentUserId = FirebaseAuth.getInstance().getCurrentUser().getUid();
-        this.db = FirebaseFirestore.getInstance();
         this.chatId = chatId;
+        this.readReceipts = readReceipts;
+        this.renderCache = renderCache;
+        this.summaryEngine = summaryEngine;
+        float density = context.getResources().getDisplayMetrics().density;
+        this.imageMaxWidthPx = Math.round(IMAGE_MAX_WIDTH_DP * density);
+        this.imageMaxHeightPx = Math.round(IMAGE_MAX_HEIGHT_DP * density);
     }
 
     @Override
     public int getItemViewType(int position) {
-        Message message = messageList.get(position);
+        Message message = messageStore.get(position);
         if (message.getSenderId().equals(currentUserId)) {
             return VIEW_TYPE_SENT;
         } else {
@@ -56,42 +75,130 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         } else {
             view = LayoutInflater.from(context).inflate(R.layout.item_message_received, parent, false);
         }
-        return new MessageViewHolder(view);
+        MessageViewHolder holder = new MessageViewHolder(view);
+
+        // Listeners are set once per holder so binds stay allocation-free
+        holder.itemView.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                Message message = messageStore.get(position);
+                if (message.getSenderId().equals(currentUserId)) {
+                    showDeleteOptionsDialog(message);
+                }
+            }
+            return true;
+        });
+        holder.messageTextView.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && holder.truncated) {
+                // Lay out the full text only when the user asks for it
+                expandedMessageIds.add(messageStore.get(position).getId());
+                notifyItemChanged(position);
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = messageList.get(position);
-        holder.messageTextView.setText(message.getText());
-        
-        if (message.getTimestamp() != null) {
-            java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("hh:mm a", java.util.Locale.getDefault());
-            holder.timeTextView.setText(sdf.format(message.getTimestamp().toDate()));
+        Message message = messageStore.get(position);
+        MessageRenderCache.RenderModel model = renderCache.get(message, expandedMessageIds.contains(message.getId()));
+        holder.truncated = model.truncated;
+        bindImage(holder.messageImageView, message);
+        // An image without a caption is shown without an empty text bubble
+        holder.messageTextView.setVisibility(message.hasImage() && model.text.length() == 0 ? View.GONE : View.VISIBLE);
+        bindText(holder.messageTextView, model, getItemViewType(position));
+
+        if (message.isPending()) {
+            // Local echo of a message the server has not confirmed yet
+            holder.timeTextView.setText("Sending...");
+        } else if (model.viewType == VIEW_TYPE_SENT && isCoveredBy(message, othersReadWatermark)) {
+            holder.timeTextView.setText(model.readTimeText);
         } else {
-            holder.timeTextView.setText("");
+            holder.timeTextView.setText(model.timeText);
         }
 
-        // If message is received, mark it as read
-        if (!message.getSenderId().equals(currentUserId) && !"read".equals(message.getStatus())) {
-            updateMessageStatus(message, "read");
-        }
+        // Received messages are marked as read in a coalesced batch, never directly from the bind
+        readReceipts.onMessageShown(message);
+    }
 
-        // Add long press listener for delete options
-        holder.itemView.setOnLongClickListener(v -> {
-            if (message.getSenderId().equals(currentUserId)) {
-                showDeleteOptionsDialog(message);
+    // The view is sized from the stored dimensions before anything loads, so rows don't jump.
+    // Glide decodes at that size, showing the small thumbnail until the image itself is in.
+    private void bindImage(ImageView imageView, Message message) {
+        if (!message.hasImage()) {
+            if (imageView.getVisibility() != View.GONE) {
+                Glide.with(imageView).clear(imageView);
+                imageView.setVisibility(View.GONE);
             }
-            return true;
-        });
+            return;
+        }
+        int width = imageMaxWidthPx;
+        int height = imageMaxWidthPx;
+        if (message.getImageWidth() > 0 && message.getImageHeight() > 0) {
+            float scale = Math.min((float) imageMaxWidthPx / message.getImageWidth(),
+                (float) imageMaxHeightPx / message.getImageHeight());
+            width = Math.max(1, Math.round(message.getImageWidth() * scale));
+            height = Math.max(1, Math.round(message.getImageHeight() * scale));
+        }
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (params.width != width || params.height != height) {
+            params.width = width;
+            params.height = height;
+            imageView.setLayoutParams(params);
+        }
+        imageView.setVisibility(View.VISIBLE);
+        Glide.with(imageView)
+            .load(message.getImageUrl())
+            .thumbnail(Glide.with(imageView).load(message.getThumbnailUrl()).override(width, height).centerCrop())
+            .override(width, height)
+            .centerCrop()
+            .into(imageView);
     }
 
-    private void updateMessageStatus(Message message, String newStatus) {
-        // Update status in Firestore
-        db.collection("chats")
-            .document(chatId)
-            .collection("messages")
-            .document(message.getId())
-            .update("status", newStatus);
+    @Override
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        super.onViewRecycled(holder);
+        Glide.with(holder.messageImageView).clear(holder.messageImageView);
+    }
+
+    // Uses text layout computed off the main thread, reusing it once it has been computed
+    private void bindText(TextView textView, MessageRenderCache.RenderModel model, int viewType) {
+        PrecomputedTextCompat.Params params = textParamsByViewType.get(viewType);
+        if (params == null) {
+            params = TextViewCompat.getTextMetricsParams(textView);
+            textParamsByViewType.put(viewType, params);
+        }
+        PrecomputedTextCompat ready = model.precomputedText;
+        if (ready != null && ready.getParams().equals(params)) {
+            TextViewCompat.setPrecomputedText(textView, ready);
+        } else if (textView instanceof AppCompatTextView) {
+            ((AppCompatTextView) textView).setTextFuture(renderCache.precomputedText(model, params));
+        } else {
+            textView.setText(model.text);
+        }
+    }
+
+    // Time labels and cached layouts depend on locale, time zone and the current day
+    public void onLocaleOrDateChanged() {
+        renderCache.invalidate();
+        textParamsByViewType.clear();
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    public void setReadWatermarks(Timestamp ownWatermark, Timestamp othersWatermark) {
+        boolean othersChanged = othersWatermark == null
+                ? othersReadWatermark != null
+                : !othersWatermark.equals(othersReadWatermark);
+        readReceipts.setOwnWatermark(ownWatermark);
+        othersReadWatermark = othersWatermark;
+        if (othersChanged) {
+            // Read markers on sent messages depend on the other participants' watermark
+            notifyItemRangeChanged(0, getItemCount());
+        }
+    }
+
+    private static boolean isCoveredBy(Message message, Timestamp watermark) {
+        return watermark != null && message.getTimestamp() != null && message.getTimestamp().compareTo(watermark) <= 0;
     }
 
     private void showDeleteOptionsDialog(Message message) {
@@ -112,164 +219,37 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     }
 
     private void deleteMessageForMe(Message message) {
-        String messageId = message.getId();
-        int deletedMessageIndex = findMessageIndex(messageId);
-
-        db.collection("chats").document(chatId)
-            .collection("messages").document(messageId)
-            .collection("deletedFor")
-            .document(currentUserId)
-            .set(new java.util.HashMap<>())
-            .addOnSuccessListener(aVoid -> {
-                // Message marked as deleted for current user
-                // Now check if this was the last message in the current view
-                if (deletedMessageIndex != -1 && deletedMessageIndex == messageList.size() - 1) {
-                    // It was the last message, find the new last message visible to the user
-                    db.collection("chats").document(chatId)
-                        .collection("messages")
-                        .orderBy("timestamp", com.google.firebase.firestore.Query.Direction.DESCENDING)
-                        .limit(10) // Limit to a reasonable number to find the previous message
-                        .get()
-                        .addOnSuccessListener(querySnapshot -> {
-                            Message newLastMessage = null;
-                            for (com.google.firebase.firestore.QueryDocumentSnapshot doc : querySnapshot) {
-                                Message msg = doc.toObject(Message.class);
-                                msg.setId(doc.getId());
-                                // Check if this message is NOT deleted for the current user
-                                db.collection("chats").document(chatId)
-                                    .collection("messages").document(msg.getId())
-                                    .collection("deletedFor")
-                                    .document(currentUserId)
-                                    .get()
-                                    .addOnSuccessListener(deletedDoc -> {
-                                        if (!deletedDoc.exists()) {
-                                            // Found a message not deleted for the current user
-                                            // Since we query in descending order, the first one found is the new last message
-                                            // Update the parent chat document
-                                            java.util.Map<String, Object> chatUpdates = new java.util.HashMap<>();
-                                            chatUpdates.put("lastMessageText", msg.getText());
-                                            chatUpdates.put("lastMessageTime", msg.getTimestamp());
-                                            db.collection("chats").document(chatId).update(chatUpdates);
-                                            // Stop processing once the new last message is found and updated
-                                            // This requires a way to break out of the outer loop or manage this flow
-                                            // For simplicity, we'll update the first non-deleted message found in the limited query
-                                            // A more robust solution might involve fetching all messages and finding the latest non-deleted one
-
-                                            // Due to the asynchronous nature, we can't easily break from the outer loop here.
-                                            // We'll rely on the fact that we update the chat with the *first* non-deleted message found in the descending query.
-                                        }
-                                    });
-                            }
-                             // If the loop finishes and no non-deleted message is found (e.g., all messages deleted)
-                             // Or if the last message was the only message and it's now deleted for this user
-                             // We should clear the last message info in the chat document.
-                             // This part is tricky to do reliably within this asynchronous structure after checking for newLastMessage.
-                             // A simpler approach is to always set to empty if no non-deleted message is found in the limited query after a delay.
-                             // However, a more direct query for the last non-deleted message is better.
-
-                             // Let's refine the logic: After marking the message as deleted, requery for the latest non-deleted message.
-                             db.collection("chats").document(chatId)
-                                 .collection("messages")
-                                 .orderBy("timestamp", com.google.firebase.firestore.Query.Direction.DESCENDING)
-                                 .limit(1)
-                                 .get()
-                                 .addOnSuccessListener(latestMsgSnapshot -> {
-                                     if (!latestMsgSnapshot.isEmpty()) {
-                                          com.google.firebase.firestore.QueryDocumentSnapshot latestDoc = (com.google.firebase.firestore.QueryDocumentSnapshot) latestMsgSnapshot.getDocuments().get(0);
-                                         Message latestMessage = latestDoc.toObject(Message.class);
-                                         latestMessage.setId(latestDoc.getId());
-
-                                         // Check if this truly is the latest non-deleted message for the current user
-                                         db.collection("chats").document(chatId)
-                                             .collection("messages").document(latestMessage.getId())
-                                             .collection("deletedFor")
-                                             .document(currentUserId)
-                                             .get()
-                                             .addOnSuccessListener(isDeletedDoc -> {
-                                                 java.util.Map<String, Object> chatUpdates = new java.util.HashMap<>();
-                                                 if (!isDeletedDoc.exists()) {
-                                                     // The latest message is not deleted for the current user
-                                                     chatUpdates.put("lastMessageText", latestMessage.getText());
-                                                     chatUpdates.put("lastMessageTime", latestMessage.getTimestamp());
-                                                 } else {
-                                                     // The latest message is also deleted for the current user, clear the last message info
-                                                     chatUpdates.put("lastMessageText", "");
-                                                     chatUpdates.put("lastMessageTime", null);
-                                                 }
-                                                 db.collection("chats").document(chatId).update(chatUpdates);
-                                             });
-                                     } else {
-                                         // No messages left in the chat, clear the last message info
-                                         java.util.Map<String, Object> chatUpdates = new java.util.HashMap<>();
-                                         chatUpdates.put("lastMessageText", "");
-                                         chatUpdates.put("lastMessageTime", null);
-                                         db.collection("chats").document(chatId).update(chatUpdates);
-                                     }
-                                 });
-                        });
-                }
-            })
-            .addOnFailureListener(e -> {
-                // Handle error
-            });
+        summaryEngine.deleteForMe(message, currentUserId)
+            .addOnFailureListener(e -> ErrorHandler.handleError(context, "Error deleting message", e));
     }
 
     private void deleteMessageForEveryone(Message message) {
-        db.collection("chats").document(chatId)
-            .collection("messages").document(message.getId())
-            .delete()
-            .addOnSuccessListener(aVoid -> {
-                // After deleting, find the new last message
-                db.collection("chats").document(chatId)
-                    .collection("messages")
-                    .orderBy("timestamp", com.google.firebase.firestore.Query.Direction.DESCENDING)
-                    .limit(1)
-                    .get()
-                    .addOnSuccessListener(querySnapshot -> {
-                        if (!querySnapshot.isEmpty()) {
-                            Message latestMessage = querySnapshot.getDocuments().get(0).toObject(Message.class);
-                            // Update chat document with new last message
-                            Map<String, Object> chatUpdates = new HashMap<>();
-                            chatUpdates.put("lastMessageText", latestMessage.getText());
-                            chatUpdates.put("lastMessageTime", latestMessage.getTimestamp());
-                            db.collection("chats").document(chatId).update(chatUpdates);
-                        } else {
-                            // No messages left, clear last message fields
-                            Map<String, Object> chatUpdates = new HashMap<>();
-                            chatUpdates.put("lastMessageText", "");
-                            chatUpdates.put("lastMessageTime", null);
-                            db.collection("chats").document(chatId).update(chatUpdates);
-                        }
-                    });
-            })
-            .addOnFailureListener(e -> {
-                // Handle error
-            });
+        if (MessageOutbox.getInstance(context).cancel(chatId, message.getId())) {
+            // Still queued, so it never reached the server and dropping the entry is enough
+            messageStore.remove(message.getId());
+            return;
+        }
+        summaryEngine.deleteForEveryone(message)
+            .addOnFailureListener(e -> ErrorHandler.handleError(context, "Error deleting message", e));
     }
 
     @Override
     public int getItemCount() {
-        return messageList.size();
+        return messageStore.size();
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
+        ImageView messageImageView;
         TextView messageTextView;
         TextView timeTextView;
+        boolean truncated;
 
         MessageViewHolder(View itemView) {
             super(itemView);
+            messageImageView = itemView.findViewById(R.id.messageImageView);
+            messageImageView.setClipToOutline(true); // Rounded like the text bubbles
             messageTextView = itemView.findViewById(R.id.messageTextView);
             timeTextView = itemView.findViewById(R.id.timeTextView);
         }
     }
-
-    // Helper method to find message index by ID
-    private int findMessageIndex(String messageId) {
-        for (int i = 0; i < messageList.size(); i++) {
-            if (messageList.get(i).getId().equals(messageId)) {
-                return i;
-            }
-        }
-        return -1;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,582 @@
+package com.example.messenger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.example.messenger.utils.ErrorHandler;
+import com.example.messenger.utils.ImageCompressor;
+
+// Persistent queue of outgoing messages. Entries are stored in SharedPreferences before
+// anything is sent, so they survive process death, and each chat's messages are sent in
+// order, several per commit. Chat summaries are handed to ChatSummaryCoalescer once the
+// messages are sent.
+public class MessageOutbox {
+    private static final String TAG = "MessageOutbox";
+    private static final String PREFS_NAME = "message_outbox";
+    private static final String KEY_ENTRIES = "entries";
+    private static final long COALESCE_DELAY_MS = 150;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final int MAX_MESSAGES_PER_BATCH = 400; // Firestore allows 500 writes per batch
+
+    public interface Listener {
+        // Called when messages were dropped because the server rejected them permanently
+        void onMessagesFailed(String chatId, List<String> messageIds);
+    }
+
+    public interface EnqueueCallback {
+        void onQueued(Message pending);
+
+        void onError(Exception e);
+    }
+
+    private static MessageOutbox instance;
+
+    private final SharedPreferences prefs;
+    private final FirebaseFirestore db;
+    private final ChatSummaryCoalescer summaries;
+    private final ChatImageUploader uploader;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Entry> entries = new ArrayList<>(); // Enqueue order, main thread only
+    private final Set<String> chatsInFlight = new HashSet<>();
+    private final Set<String> drainsScheduled = new HashSet<>();
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+    private final Set<Listener> listeners = new HashSet<>();
+
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageOutbox(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        db = FirebaseFirestore.getInstance();
+        summaries = ChatSummaryCoalescer.getInstance(context);
+        uploader = ChatImageUploader.getInstance(context);
+        load();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Queues a message and returns it as a pending local echo
+    public Message enqueue(String chatId, String senderId, String text, List<String> participants) {
+        Entry entry = newEntry(chatId, senderId, text, participants);
+        entries.add(entry);
+        save();
+        scheduleDrain(chatId, COALESCE_DELAY_MS);
+        return entry.toMessage();
+    }
+
+    // Queues an image message once its compressed files are staged, then starts the upload
+    public void enqueueImage(String chatId, String senderId, ImageCompressor.Result image,
+                             List<String> participants, EnqueueCallback callback) {
+        Entry entry = newEntry(chatId, senderId, "", participants);
+        uploader.stage(entry.messageId, image, new ChatImageUploader.StageCallback() {
+            @Override
+            public void onStaged(File imageFile, File thumbnailFile) {
+                entry.imagePath = imageFile.getAbsolutePath();
+                entry.thumbnailPath = thumbnailFile.getAbsolutePath();
+                entry.imageWidth = image.width;
+                entry.imageHeight = image.height;
+                entry.createdAt = System.currentTimeMillis(); // So the echo sorts after anything sent while staging
+                entries.add(entry);
+                save();
+                callback.onQueued(entry.toMessage());
+                upload(entry);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    private Entry newEntry(String chatId, String senderId, String text, List<String> participants) {
+        Entry entry = new Entry();
+        // Generated up front and used as the document id, so every attempt writes the same message
+        entry.messageId = db.collection("chats").document(chatId).collection("messages").document().getId();
+        entry.chatId = chatId;
+        entry.senderId = senderId;
+        entry.text = text;
+        entry.createdAt = System.currentTimeMillis();
+        entry.participants = participants != null ? new ArrayList<>(participants) : null;
+        return entry;
+    }
+
+    private void upload(Entry entry) {
+        uploader.upload(entry.chatId, entry.messageId, entry.imagePath, entry.thumbnailPath, new ChatImageUploader.Callback() {
+            @Override
+            public void onUploaded(String imageUrl, String thumbnailUrl) {
+                if (!entries.contains(entry)) {
+                    return;
+                }
+                entry.imageUrl = imageUrl;
+                entry.thumbnailUrl = thumbnailUrl;
+                save();
+                scheduleDrain(entry.chatId, 0);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                ErrorHandler.handleError(null, "Dropping image message that could not be uploaded", e);
+                if (entries.remove(entry)) {
+                    save();
+                    discardFiles(Collections.singletonList(entry));
+                    notifyFailed(entry.chatId, Collections.singletonList(entry.messageId));
+                    scheduleDrain(entry.chatId, 0);
+                }
+            }
+        });
+    }
+
+    // Messages still waiting to be sent for a chat, as pending local echoes
+    public List<Message> pendingMessages(String chatId) {
+        List<Message> pending = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.chatId.equals(chatId)) {
+                pending.add(entry.toMessage());
+            }
+        }
+        return pending;
+    }
+
+    // Takes a message deleted for everyone out of the queue. Returns true if it had not been
+    // handed to Firestore yet, so there is nothing on the server to delete. A message in a batch
+    // that is being sent is marked instead, so it is neither resent nor summarized.
+    public boolean cancel(String chatId, String messageId) {
+        for (Entry entry : entries) {
+            if (entry.chatId.equals(chatId) && entry.messageId.equals(messageId)) {
+                if (entry.inFlight) {
+                    entry.cancelled = true;
+                    save();
+                    return false;
+                }
+                entries.remove(entry);
+                save();
+                discardFiles(Collections.singletonList(entry));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Drops every queued message, e.g. on sign-out; they were written as the previous account
+    public void clear() {
+        for (Entry entry : entries) {
+            entry.cancelled = true; // Batches still in flight complete without being summarized
+        }
+        discardFiles(entries);
+        entries.clear();
+        failedAttempts.clear();
+        save();
+    }
+
+    // Called once at startup to pick up entries left over from a previous process
+    public void resume() {
+        Set<String> chatIds = new HashSet<>();
+        for (Entry entry : entries) {
+            chatIds.add(entry.chatId);
+            if (entry.isAwaitingUpload()) {
+                upload(entry); // Continues the saved upload session where there is one
+            }
+        }
+        for (String chatId : chatIds) {
+            List<Entry> inFlight = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.chatId.equals(chatId) && entry.inFlight) {
+                    inFlight.add(entry);
+                }
+            }
+            if (inFlight.isEmpty()) {
+                scheduleDrain(chatId, 0);
+                continue;
+            }
+            // A batch was handed to Firestore before the process died. Batches are applied to the
+            // local cache atomically, so if its first message is cached Firestore's own write queue
+            // will deliver it and resending would duplicate the summary update.
+            chatsInFlight.add(chatId);
+            messageRef(inFlight.get(0)).get(Source.CACHE)
+                .addOnCompleteListener(task -> {
+                    chatsInFlight.remove(chatId);
+                    if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                        entries.removeAll(inFlight);
+                        discardFiles(inFlight);
+                        summarizeDelivered(chatId, inFlight, inFlight.get(inFlight.size() - 1).participants);
+                    } else {
+                        for (Entry entry : inFlight) {
+                            entry.inFlight = false;
+                        }
+                        dropCancelled(inFlight);
+                    }
+                    save();
+                    scheduleDrain(chatId, 0);
+                });
+        }
+    }
+
+    private void scheduleDrain(String chatId, long delayMs) {
+        if (!drainsScheduled.add(chatId)) {
+            return;
+        }
+        handler.postDelayed(() -> {
+            drainsScheduled.remove(chatId);
+            drain(chatId);
+        }, delayMs);
+    }
+
+    // At most one batch per chat is in flight; everything queued meanwhile goes out in the next one
+    private void drain(String chatId) {
+        if (chatsInFlight.contains(chatId)) {
+            return; // The next batch starts when the current one completes
+        }
+        List<Entry> batchEntries = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.chatId.equals(chatId) && entry.isAwaitingUpload()) {
+                break; // Later messages go out after the image, once it is uploaded
+            }
+            if (entry.chatId.equals(chatId) && !entry.inFlight) {
+                batchEntries.add(entry);
+                if (batchEntries.size() == MAX_MESSAGES_PER_BATCH) {
+                    break;
+                }
+            }
+        }
+        if (batchEntries.isEmpty()) {
+            return;
+        }
+
+        List<String> participants = null;
+        for (Entry entry : batchEntries) {
+            if (entry.participants != null) {
+                participants = entry.participants;
+            }
+        }
+        chatsInFlight.add(chatId);
+        if (participants != null) {
+            commit(chatId, batchEntries, participants);
+        } else {
+            // Queued before the chat document was loaded, read the participants once
+            db.collection("chats").document(chatId).get()
+                .addOnSuccessListener(chatDoc -> commit(chatId, batchEntries, (List<String>) chatDoc.get("participants")))
+                .addOnFailureListener(e -> onBatchFailed(chatId, batchEntries, e));
+        }
+    }
+
+    // Sends all queued messages of a chat as one commit; the summary follows through the coalescer
+    private void commit(String chatId, List<Entry> batchEntries, List<String> participants) {
+        boolean resend = false;
+        for (Entry entry : batchEntries) {
+            resend |= entry.attempted;
+            entry.inFlight = true;
+            entry.attempted = true;
+        }
+        save();
+
+        Task<Void> write;
+        if (resend) {
+            // An earlier attempt may have reached the server without being acknowledged, so
+            // existing messages are left alone rather than written over
+            write = db.runTransaction(transaction -> {
+                List<Entry> missing = new ArrayList<>();
+                for (Entry entry : batchEntries) {
+                    if (!transaction.get(messageRef(entry)).exists()) {
+                        missing.add(entry);
+                    }
+                }
+                for (Entry entry : missing) {
+                    transaction.set(messageRef(entry), messageFields(entry));
+                }
+                return null;
+            });
+        } else {
+            // A plain batch needs no server read, so a first attempt also works offline
+            WriteBatch batch = db.batch();
+            for (Entry entry : batchEntries) {
+                batch.set(messageRef(entry), messageFields(entry));
+            }
+            write = batch.commit();
+        }
+
+        Log.d(TAG, (resend ? "Resending " : "Committing ") + batchEntries.size() + " queued message(s) for chat " + chatId);
+        write
+            .addOnSuccessListener(aVoid -> {
+                chatsInFlight.remove(chatId);
+                failedAttempts.remove(chatId);
+                entries.removeAll(batchEntries);
+                save();
+                discardFiles(batchEntries);
+                summarizeDelivered(chatId, batchEntries, participants);
+                scheduleDrain(chatId, 0);
+            })
+            .addOnFailureListener(e -> onBatchFailed(chatId, batchEntries, e));
+    }
+
+    private static Map<String, Object> messageFields(Entry entry) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("id", entry.messageId);
+        message.put("chatId", entry.chatId);
+        message.put("senderId", entry.senderId);
+        message.put("text", entry.text);
+        if (entry.imagePath != null) {
+            message.put("imageUrl", entry.imageUrl);
+            message.put("thumbnailUrl", entry.thumbnailUrl);
+            message.put("imageWidth", entry.imageWidth);
+            message.put("imageHeight", entry.imageHeight);
+        }
+        message.put("status", "sent");
+        message.put("timestamp", FieldValue.serverTimestamp());
+        return message;
+    }
+
+    // Messages deleted while they were being sent get no summary
+    private void summarizeDelivered(String chatId, List<Entry> sent, List<String> participants) {
+        List<Entry> kept = new ArrayList<>();
+        for (Entry entry : sent) {
+            if (!entry.cancelled) {
+                kept.add(entry);
+            }
+        }
+        if (!kept.isEmpty()) {
+            summarize(chatId, kept, participants);
+        }
+    }
+
+    // Once a batch is known not to have been applied, messages deleted meanwhile are not sent again
+    private void dropCancelled(List<Entry> batchEntries) {
+        List<Entry> cancelled = new ArrayList<>();
+        for (Entry entry : batchEntries) {
+            if (entry.cancelled) {
+                cancelled.add(entry);
+            }
+        }
+        if (entries.removeAll(cancelled)) {
+            discardFiles(cancelled);
+        }
+    }
+
+    // Every entry in a batch comes from the signed-in user, so they share one sender. The
+    // acknowledged batch leaves the server timestamps in the local cache, so the preview can
+    // carry the newest message's own time without a server read.
+    private void summarize(String chatId, List<Entry> sent, List<String> participants) {
+        Entry latest = sent.get(sent.size() - 1);
+        messageRef(latest).get(Source.CACHE).addOnCompleteListener(task -> {
+            Timestamp time = task.isSuccessful() && task.getResult() != null
+                ? task.getResult().getTimestamp("timestamp")
+                : null;
+            summaries.add(chatId, latest.senderId, latest.messageId,
+                Message.previewText(latest.text, latest.imagePath != null), time, sent.size(), participants);
+        });
+    }
+
+    // Staged image files are only needed until the message is written or dropped
+    private void discardFiles(List<Entry> done) {
+        for (Entry entry : done) {
+            if (entry.imagePath != null) {
+                uploader.discard(entry.chatId, entry.messageId, entry.imagePath, entry.thumbnailPath);
+            }
+        }
+    }
+
+    private void notifyFailed(String chatId, List<String> messageIds) {
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onMessagesFailed(chatId, messageIds);
+        }
+    }
+
+    private void onBatchFailed(String chatId, List<Entry> batchEntries, Exception e) {
+        chatsInFlight.remove(chatId);
+        if (isPermanentFailure(e)) {
+            // Retrying cannot succeed, give the messages back to the UI instead of looping forever
+            ErrorHandler.handleError(null, "Dropping " + batchEntries.size() + " rejected message(s)", e);
+            entries.removeAll(batchEntries);
+            failedAttempts.remove(chatId);
+            save();
+            discardFiles(batchEntries);
+            List<String> messageIds = new ArrayList<>();
+            for (Entry entry : batchEntries) {
+                messageIds.add(entry.messageId);
+            }
+            notifyFailed(chatId, messageIds);
+            scheduleDrain(chatId, 0);
+            return;
+        }
+
+        for (Entry entry : batchEntries) {
+            entry.inFlight = false;
+        }
+        dropCancelled(batchEntries);
+        save();
+        int attempts = failedAttempts.containsKey(chatId) ? failedAttempts.get(chatId) + 1 : 1;
+        failedAttempts.put(chatId, attempts);
+        long delay = Math.min(INITIAL_BACKOFF_MS << Math.min(attempts - 1, 16), MAX_BACKOFF_MS);
+        Log.w(TAG, "Send failed for chat " + chatId + ", retry " + attempts + " in " + delay + "ms", e);
+        scheduleDrain(chatId, delay);
+    }
+
+    private boolean isPermanentFailure(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        FirebaseFirestoreException.Code code = ((FirebaseFirestoreException) e).getCode();
+        return code == FirebaseFirestoreException.Code.PERMISSION_DENIED
+            || code == FirebaseFirestoreException.Code.NOT_FOUND
+            || code == FirebaseFirestoreException.Code.INVALID_ARGUMENT;
+    }
+
+    private DocumentReference messageRef(Entry entry) {
+        return db.collection("chats").document(entry.chatId).collection("messages").document(entry.messageId);
+    }
+
+    private void load() {
+        String json = prefs.getString(KEY_ENTRIES, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                entries.add(Entry.fromJson(array.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            ErrorHandler.handleError(null, "Discarding unreadable outbox", e);
+            prefs.edit().remove(KEY_ENTRIES).apply();
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                array.put(entry.toJson());
+            }
+        } catch (JSONException e) {
+            ErrorHandler.handleError(null, "Error saving outbox", e);
+            return;
+        }
+        prefs.edit().putString(KEY_ENTRIES, array.toString()).apply();
+    }
+
+    private static class Entry {
+        String messageId; // Also the idempotency key
+        String chatId;
+        String senderId;
+        String text;
+        long createdAt;
+        List<String> participants;
+        boolean inFlight;
+        boolean attempted; // Handed to Firestore at least once, so a send may already have landed
+        boolean cancelled; // Deleted for everyone while in flight
+        String imagePath; // Staged image file, set for image messages only
+        String thumbnailPath;
+        int imageWidth;
+        int imageHeight;
+        String imageUrl; // Download URLs, set once the upload is done
+        String thumbnailUrl;
+
+        boolean isAwaitingUpload() {
+            return imagePath != null && imageUrl == null;
+        }
+
+        Message toMessage() {
+            Message message = new Message(senderId, text, new Timestamp(createdAt / 1000, (int) (createdAt % 1000) * 1_000_000));
+            message.setId(messageId);
+            message.setChatId(chatId);
+            message.setPending(true);
+            if (imagePath != null) {
+                // The echo shows the staged files, so it needs no network
+                message.setImageUrl(Uri.fromFile(new File(imagePath)).toString());
+                message.setThumbnailUrl(Uri.fromFile(new File(thumbnailPath)).toString());
+                message.setImageWidth(imageWidth);
+                message.setImageHeight(imageHeight);
+            }
+            return message;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("messageId", messageId);
+            json.put("chatId", chatId);
+            json.put("senderId", senderId);
+            json.put("text", text);
+            json.put("createdAt", createdAt);
+            json.put("inFlight", inFlight);
+            json.put("attempted", attempted);
+            json.put("cancelled", cancelled);
+            if (imagePath != null) {
+                json.put("imagePath", imagePath);
+                json.put("thumbnailPath", thumbnailPath);
+                json.put("imageWidth", imageWidth);
+                json.put("imageHeight", imageHeight);
+                json.put("imageUrl", imageUrl);
+                json.put("thumbnailUrl", thumbnailUrl);
+            }
+            if (participants != null) {
+                json.put("participants", new JSONArray(participants));
+            }
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            Entry entry = new Entry();
+            entry.messageId = json.getString("messageId");
+            entry.chatId = json.getString("chatId");
+            entry.senderId = json.getString("senderId");
+            entry.text = json.getString("text");
+            entry.createdAt = json.getLong("createdAt");
+            entry.inFlight = json.optBoolean("inFlight", false);
+            entry.attempted = json.optBoolean("attempted", entry.inFlight);
+            entry.cancelled = json.optBoolean("cancelled", false);
+            if (json.has("imagePath")) {
+                entry.imagePath = json.getString("imagePath");
+                entry.thumbnailPath = json.getString("thumbnailPath");
+                entry.imageWidth = json.optInt("imageWidth", 0);
+                entry.imageHeight = json.optInt("imageHeight", 0);
+                entry.imageUrl = json.optString("imageUrl", null);
+                entry.thumbnailUrl = json.optString("thumbnailUrl", null);
+            }
+            JSONArray participants = json.optJSONArray("participants");
+            if (participants != null) {
+                entry.participants = new ArrayList<>();
+                for (int i = 0; i < participants.length(); i++) {
+                    entry.participants.add(participants.getString(i));
+                }
+            }
+            return entry;
+        }
+    }
+}
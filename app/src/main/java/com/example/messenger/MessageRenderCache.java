@@ -0,0 +1,138 @@
+package com.example.messenger;
+
+import android.text.SpannableStringBuilder;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Render models for chat bubbles, built ahead of time (normally on the snapshot worker) so
+// that binding a message only sets precomputed values. Models are cached by message id and
+// are rebuilt when the message object changes or the day rolls over, since the time label
+// depends on whether the message is from today.
+public class MessageRenderCache {
+    public static final int VIEW_TYPE_SENT = 1;
+    public static final int VIEW_TYPE_RECEIVED = 2;
+    private static final int MAX_CACHED_MODELS = 500;
+    private static final int COLLAPSED_MAX_CHARS = 2000; // Longer messages are cut until expanded
+    private static final String SHOW_MORE = "… Show more";
+
+    private final String currentUserId;
+    private final LruCache<String, RenderModel> models = new LruCache<>(MAX_CACHED_MODELS);
+    private final ExecutorService textLayoutExecutor =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "message-text-layout"));
+    private SimpleDateFormat todayFormat;
+    private SimpleDateFormat olderFormat;
+    private long todayStart;
+    private long tomorrowStart;
+
+    public MessageRenderCache(String currentUserId) {
+        this.currentUserId = currentUserId;
+        resetFormats();
+    }
+
+    // Builds the collapsed model on the calling thread so the next bind finds it ready
+    public void prepare(Message message) {
+        get(message, false);
+    }
+
+    public RenderModel get(Message message, boolean expanded) {
+        String key = expanded ? message.getId() + "#expanded" : message.getId();
+        long dayStart = currentDayStart();
+        RenderModel model = models.get(key);
+        if (model == null || model.source != message || model.dayStart != dayStart) {
+            model = build(message, expanded, dayStart);
+            models.put(key, model);
+        }
+        return model;
+    }
+
+    // Text layout for a bubble, computed on a background thread and reused once done
+    public Future<PrecomputedTextCompat> precomputedText(RenderModel model, PrecomputedTextCompat.Params params) {
+        return textLayoutExecutor.submit(() -> {
+            PrecomputedTextCompat cached = model.precomputedText;
+            if (cached != null && cached.getParams().equals(params)) {
+                return cached;
+            }
+            PrecomputedTextCompat computed = PrecomputedTextCompat.create(model.text, params);
+            model.precomputedText = computed;
+            return computed;
+        });
+    }
+
+    // Drops every model, e.g. after a locale, time zone or date change
+    public synchronized void invalidate() {
+        models.evictAll();
+        resetFormats();
+    }
+
+    public void shutdown() {
+        textLayoutExecutor.shutdownNow();
+    }
+
+    private RenderModel build(Message message, boolean expanded, long dayStart) {
+        int viewType = currentUserId.equals(message.getSenderId()) ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
+        String timeText = message.getTimestamp() != null ? formatTime(message.getTimestamp().toDate()) : "";
+
+        String fullText = message.getText() != null ? message.getText() : "";
+        boolean truncated = !expanded && fullText.length() > COLLAPSED_MAX_CHARS;
+        CharSequence text = fullText;
+        if (truncated) {
+            text = new SpannableStringBuilder(fullText, 0, COLLAPSED_MAX_CHARS).append(SHOW_MORE);
+        }
+        return new RenderModel(message, dayStart, viewType, timeText, text, truncated);
+    }
+
+    private synchronized String formatTime(Date date) {
+        long time = date.getTime();
+        return time >= todayStart && time < tomorrowStart ? todayFormat.format(date) : olderFormat.format(date);
+    }
+
+    private synchronized long currentDayStart() {
+        if (System.currentTimeMillis() >= tomorrowStart) {
+            resetFormats();
+        }
+        return todayStart;
+    }
+
+    private synchronized void resetFormats() {
+        todayFormat = new SimpleDateFormat("hh:mm a", Locale.getDefault());
+        olderFormat = new SimpleDateFormat("MMM d, hh:mm a", Locale.getDefault());
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        todayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        tomorrowStart = calendar.getTimeInMillis();
+    }
+
+    public static class RenderModel {
+        final Message source;
+        final long dayStart;
+        public final int viewType;
+        public final String timeText;
+        public final String readTimeText; // Time label with the read marker, for sent messages
+        public final CharSequence text;
+        public final boolean truncated;
+        volatile PrecomputedTextCompat precomputedText;
+
+        RenderModel(Message source, long dayStart, int viewType, String timeText, CharSequence text, boolean truncated) {
+            this.source = source;
+            this.dayStart = dayStart;
+            this.viewType = viewType;
+            this.timeText = timeText;
+            this.readTimeText = timeText + " · Read";
+            this.text = text;
+            this.truncated = truncated;
+        }
+    }
+}
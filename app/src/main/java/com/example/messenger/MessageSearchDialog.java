@@ -0,0 +1,96 @@
+package com.example.messenger;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Search box over the local message index, for one chat or (with a null chat id) all of them
+public class MessageSearchDialog {
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int MAX_RESULTS = 50;
+
+    public interface OnResultClickListener {
+        void onResultClick(MessageSearchIndex.Result result);
+    }
+
+    public static void show(Activity activity, String chatId, OnResultClickListener listener) {
+        LinearLayout layout = new LinearLayout(activity);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        EditText queryInput = new EditText(activity);
+        queryInput.setHint(chatId != null ? "Search in this chat" : "Search messages");
+        queryInput.setSingleLine(true);
+        layout.addView(queryInput);
+        ListView resultsView = new ListView(activity);
+        layout.addView(resultsView, new LinearLayout.LayoutParams(
+            ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d, yyyy h:mm a", Locale.getDefault());
+        ArrayAdapter<MessageSearchIndex.Result> adapter = new ArrayAdapter<MessageSearchIndex.Result>(
+                activity, android.R.layout.simple_list_item_2, android.R.id.text1) {
+            @NonNull
+            @Override
+            public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+                View view = convertView != null ? convertView
+                    : LayoutInflater.from(activity).inflate(android.R.layout.simple_list_item_2, parent, false);
+                MessageSearchIndex.Result result = getItem(position);
+                ((TextView) view.findViewById(android.R.id.text1)).setText(result.text);
+                ((TextView) view.findViewById(android.R.id.text2)).setText(dateFormat.format(new Date(result.timestamp)));
+                return view;
+            }
+        };
+        resultsView.setAdapter(adapter);
+
+        AlertDialog dialog = new AlertDialog.Builder(activity)
+            .setView(layout)
+            .setNegativeButton("Close", null)
+            .create();
+        resultsView.setOnItemClickListener((parent, view, position, id) -> {
+            dialog.dismiss();
+            listener.onResultClick(adapter.getItem(position));
+        });
+
+        MessageSearchIndex index = MessageSearchIndex.getInstance(activity);
+        Handler handler = new Handler(Looper.getMainLooper());
+        int[] generation = {0}; // Results of an older query are dropped
+        Runnable search = () -> {
+            int current = ++generation[0];
+            index.search(queryInput.getText().toString(), chatId, MAX_RESULTS, results -> {
+                if (current == generation[0] && dialog.isShowing()) {
+                    adapter.clear();
+                    adapter.addAll(results);
+                }
+            });
+        };
+        queryInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                handler.removeCallbacks(search);
+                handler.postDelayed(search, SEARCH_DEBOUNCE_MS);
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {}
+        });
+        dialog.setOnDismissListener(d -> handler.removeCallbacks(search));
+        dialog.show();
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.messenger;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.messenger.utils.SnapshotDispatcher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+// Full-text search over message history, kept on the device. It is fed from the messages the
+// chat screen already receives (live window and older pages), so searching never reads from
+// Firestore. The index is an SQLite FTS4 table in MessengerDatabase, updated one message at
+// a time, and results are ranked with BM25 over FTS4's matchinfo, newest first on ties.
+// All database work runs on a single background thread.
+public class MessageSearchIndex {
+    private static final String TAG = "MessageSearchIndex";
+    private static final int CANDIDATE_LIMIT = 500; // Newest matches considered for ranking
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    public interface Callback {
+        void onResults(List<Result> results);
+    }
+
+    private static MessageSearchIndex instance;
+
+    private final MessengerDatabase database;
+    private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "message-index"));
+
+    public static synchronized MessageSearchIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageSearchIndex(context);
+        }
+        return instance;
+    }
+
+    private MessageSearchIndex(Context context) {
+        database = MessengerDatabase.getInstance(context);
+    }
+
+    // Adds or refreshes messages and drops removed ones; messages already indexed with the same text are skipped
+    public void update(List<Message> upserts, List<String> removedIds) {
+        if (upserts.isEmpty() && removedIds.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (String messageId : removedIds) {
+                    delete(db, messageId);
+                }
+                for (Message message : upserts) {
+                    upsert(db, message);
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error updating message index", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    // Drops everything indexed, e.g. when the signed-in account changes
+    public void clear() {
+        executor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(MessengerDatabase.TABLE_INDEXED_MESSAGES, null, null);
+                // Rebuilding an external-content index from its now empty content table empties it
+                db.execSQL("INSERT INTO " + MessengerDatabase.TABLE_MESSAGE_FTS + "(" + MessengerDatabase.TABLE_MESSAGE_FTS
+                    + ") VALUES('rebuild')");
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error clearing message index", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    // Searches every chat when chatId is null; results arrive on the main thread
+    public void search(String query, String chatId, int limit, Callback callback) {
+        executor.execute(() -> {
+            List<Result> results;
+            try {
+                results = runSearch(query, chatId, limit);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error searching messages", e);
+                results = Collections.emptyList();
+            }
+            List<Result> finalResults = results;
+            SnapshotDispatcher.postToMain(() -> callback.onResults(finalResults));
+        });
+    }
+
+    private void upsert(SQLiteDatabase db, Message message) {
+        String text = message.getText();
+        if (message.getId() == null || message.getChatId() == null || message.getTimestamp() == null
+                || text == null || text.trim().isEmpty()) {
+            return;
+        }
+        try (Cursor cursor = db.rawQuery("SELECT rowid, text FROM " + MessengerDatabase.TABLE_INDEXED_MESSAGES
+                + " WHERE message_id = ?", new String[] {message.getId()})) {
+            if (cursor.moveToFirst()) {
+                if (text.equals(cursor.getString(1))) {
+                    return; // Already indexed, e.g. the same message seen again after a restart
+                }
+                removeFromFts(db, cursor.getLong(0), cursor.getString(1));
+                db.delete(MessengerDatabase.TABLE_INDEXED_MESSAGES, "rowid = ?", new String[] {String.valueOf(cursor.getLong(0))});
+            }
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("message_id", message.getId());
+        values.put("chat_id", message.getChatId());
+        values.put("sender_id", message.getSenderId());
+        values.put("timestamp", message.getTimestamp().toDate().getTime());
+        values.put("text", text);
+        long rowId = db.insert(MessengerDatabase.TABLE_INDEXED_MESSAGES, null, values);
+        if (rowId != -1) {
+            db.execSQL("INSERT INTO " + MessengerDatabase.TABLE_MESSAGE_FTS + "(docid, text) VALUES(?, ?)",
+                new Object[] {rowId, text});
+        }
+    }
+
+    private void delete(SQLiteDatabase db, String messageId) {
+        try (Cursor cursor = db.rawQuery("SELECT rowid, text FROM " + MessengerDatabase.TABLE_INDEXED_MESSAGES
+                + " WHERE message_id = ?", new String[] {messageId})) {
+            if (cursor.moveToFirst()) {
+                removeFromFts(db, cursor.getLong(0), cursor.getString(1));
+                db.delete(MessengerDatabase.TABLE_INDEXED_MESSAGES, "rowid = ?", new String[] {String.valueOf(cursor.getLong(0))});
+            }
+        }
+    }
+
+    // External-content tables need the old text to remove its terms from the index
+    private void removeFromFts(SQLiteDatabase db, long rowId, String text) {
+        db.execSQL("INSERT INTO " + MessengerDatabase.TABLE_MESSAGE_FTS + "(" + MessengerDatabase.TABLE_MESSAGE_FTS
+            + ", docid, text) VALUES('delete', ?, ?)", new Object[] {rowId, text});
+    }
+
+    private List<Result> runSearch(String query, String chatId, int limit) {
+        String match = toMatchExpression(query);
+        if (match == null) {
+            return Collections.emptyList();
+        }
+        String sql = "SELECT m.message_id, m.chat_id, m.sender_id, m.timestamp, m.text, "
+            + "matchinfo(" + MessengerDatabase.TABLE_MESSAGE_FTS + ", 'pnalx') "
+            + "FROM " + MessengerDatabase.TABLE_MESSAGE_FTS + " JOIN " + MessengerDatabase.TABLE_INDEXED_MESSAGES
+            + " m ON m.rowid = " + MessengerDatabase.TABLE_MESSAGE_FTS + ".docid "
+            + "WHERE " + MessengerDatabase.TABLE_MESSAGE_FTS + " MATCH ?"
+            + (chatId != null ? " AND m.chat_id = ?" : "")
+            + " ORDER BY m.timestamp DESC LIMIT " + CANDIDATE_LIMIT;
+        String[] args = chatId != null ? new String[] {match, chatId} : new String[] {match};
+
+        List<Result> results = new ArrayList<>();
+        SQLiteDatabase db = database.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                results.add(new Result(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getLong(3), cursor.getString(4), bm25(cursor.getBlob(5))));
+            }
+        }
+        // Candidates come newest first, and the sort is stable, so equal scores stay in that order
+        Collections.sort(results, (a, b) -> Double.compare(b.score, a.score));
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    // Every word must match, the last one as a prefix so results appear while typing. Words are
+    // quoted so that typed OR, NOT or NEAR stay plain words instead of FTS operators; FTS4 takes
+    // the prefix asterisk inside the quotes.
+    static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : NON_WORD.split(query.trim())) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append("\" ");
+                }
+                match.append('"').append(word);
+            }
+        }
+        return match.length() > 0 ? match.append("*\"").toString() : null;
+    }
+
+    // matchinfo 'pnalx' for the single text column: phrase count, row count, average row length,
+    // this row's length, then (hits in row, hits in all rows, rows with hits) for each phrase
+    static double bm25(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        long rows = buffer.getInt(4) & 0xffffffffL;
+        double averageLength = Math.max(1, buffer.getInt(8));
+        double length = buffer.getInt(12);
+        double score = 0;
+        for (int i = 0; i < phrases; i++) {
+            int offset = 16 + i * 12;
+            double hitsInRow = buffer.getInt(offset);
+            double rowsWithHits = buffer.getInt(offset + 8);
+            if (hitsInRow == 0) {
+                continue;
+            }
+            double idf = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+            score += idf * hitsInRow * (K1 + 1) / (hitsInRow + K1 * (1 - B + B * length / averageLength));
+        }
+        return score;
+    }
+
+    public static final class Result {
+        public final String messageId;
+        public final String chatId;
+        public final String senderId;
+        public final long timestamp;
+        public final String text;
+        public final double score;
+
+        Result(String messageId, String chatId, String senderId, long timestamp, String text, double score) {
+            this.messageId = messageId;
+            this.chatId = chatId;
+            this.senderId = senderId;
+            this.timestamp = timestamp;
+            this.text = text;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.messenger;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Messages of one chat kept sorted by timestamp and id, with an id index for O(log n) lookups.
+// Every mutation is reported to the callback as an exact range notification.
+public class MessageStore {
+    // Messages still waiting for their server timestamp sort after everything else
+    private static final Comparator<Message> ORDER = (m1, m2) -> {
+        if (m1.getTimestamp() == null && m2.getTimestamp() != null) return 1;
+        if (m1.getTimestamp() != null && m2.getTimestamp() == null) return -1;
+        if (m1.getTimestamp() != null) {
+            int byTime = m1.getTimestamp().compareTo(m2.getTimestamp());
+            if (byTime != 0) return byTime;
+        }
+        return m1.getId().compareTo(m2.getId());
+    };
+
+    private final List<Message> messages = new ArrayList<>();
+    private final Map<String, Message> messagesById = new HashMap<>();
+    private ListUpdateCallback callback;
+
+    public void setCallback(ListUpdateCallback callback) {
+        this.callback = callback;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public Message get(int position) {
+        return messages.get(position);
+    }
+
+    public Message getById(String messageId) {
+        return messagesById.get(messageId);
+    }
+
+    public boolean contains(String messageId) {
+        return messagesById.containsKey(messageId);
+    }
+
+    // Position of the message, or -1 if it is not in the store
+    public int indexOf(String messageId) {
+        Message stored = messagesById.get(messageId);
+        if (stored == null) {
+            return -1;
+        }
+        int index = Collections.binarySearch(messages, stored, ORDER);
+        return index >= 0 ? index : -1;
+    }
+
+    // Inserts the message or replaces the stored copy, moving it if its timestamp changed.
+    // Returns the message's position after the update.
+    public int upsert(Message message) {
+        int oldIndex = indexOf(message.getId());
+        if (oldIndex == -1) {
+            int insertIndex = insertionPoint(message);
+            messages.add(insertIndex, message);
+            messagesById.put(message.getId(), message);
+            if (callback != null) callback.onInserted(insertIndex, 1);
+            return insertIndex;
+        }
+
+        messages.remove(oldIndex);
+        int newIndex = insertionPoint(message);
+        messages.add(newIndex, message);
+        messagesById.put(message.getId(), message);
+        if (callback != null) {
+            if (newIndex != oldIndex) callback.onMoved(oldIndex, newIndex);
+            callback.onChanged(newIndex, 1, null);
+        }
+        return newIndex;
+    }
+
+    // Returns the removed position, or -1 if the message was not in the store
+    public int remove(String messageId) {
+        int index = indexOf(messageId);
+        if (index == -1) {
+            return -1;
+        }
+        messages.remove(index);
+        messagesById.remove(messageId);
+        if (callback != null) callback.onRemoved(index, 1);
+        return index;
+    }
+
+    // Adds a page of messages. A page that lies entirely before or after the loaded
+    // range is inserted as one block and reported as a single range insert.
+    public void addAll(Collection<Message> page) {
+        List<Message> incoming = new ArrayList<>();
+        for (Message message : page) {
+            if (messagesById.containsKey(message.getId())) {
+                upsert(message);
+            } else {
+                incoming.add(message);
+            }
+        }
+        if (incoming.isEmpty()) {
+            return;
+        }
+        Collections.sort(incoming, ORDER);
+
+        int insertIndex;
+        if (messages.isEmpty() || ORDER.compare(incoming.get(incoming.size() - 1), messages.get(0)) < 0) {
+            insertIndex = 0;
+        } else if (ORDER.compare(incoming.get(0), messages.get(messages.size() - 1)) > 0) {
+            insertIndex = messages.size();
+        } else {
+            // Interleaved with what is already loaded, fall back to individual inserts
+            for (Message message : incoming) {
+                upsert(message);
+            }
+            return;
+        }
+
+        messages.addAll(insertIndex, incoming);
+        for (Message message : incoming) {
+            messagesById.put(message.getId(), message);
+        }
+        if (callback != null) callback.onInserted(insertIndex, incoming.size());
+    }
+
+    public void clear() {
+        int count = messages.size();
+        messages.clear();
+        messagesById.clear();
+        if (callback != null && count > 0) callback.onRemoved(0, count);
+    }
+
+    private int insertionPoint(Message message) {
+        int index = Collections.binarySearch(messages, message, ORDER);
+        return index >= 0 ? index : -(index + 1);
+    }
+}
@@ -36,6 +36,13 @@ public class MessengerApplication extends Application {
             } catch (Exception e) {
                 Log.e(TAG, "Error configuring Firestore settings: " + e.getMessage(), e);
             }
+
+            // Send anything left in the outbox by a previous process
+            MessageOutbox.getInstance(this).resume();
+            ChatSummaryCoalescer.getInstance(this).resume();
+
+            // Presence heartbeats follow whether any activity is visible
+            registerActivityLifecycleCallbacks(PresenceHeartbeat.getInstance());
         } catch (Exception e) {
             Log.e(TAG, "Fatal error initializing Firebase: " + e.getMessage(), e);
             // We can't show Toast here as the context isn't ready
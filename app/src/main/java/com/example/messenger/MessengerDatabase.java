@@ -0,0 +1,74 @@
+package com.example.messenger;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+// On-device SQLite database for data the app derives locally and wants to keep across restarts.
+// Firestore's own cache stays the source of truth; everything here can be rebuilt from it.
+public class MessengerDatabase extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "messenger.db";
+    private static final int DATABASE_VERSION = 3;
+
+    // Message search: the text is stored once in indexed_messages, and message_fts is an
+    // external-content FTS4 index over it whose docids are indexed_messages rowids
+    public static final String TABLE_INDEXED_MESSAGES = "indexed_messages";
+    public static final String TABLE_MESSAGE_FTS = "message_fts";
+    // Local copy of user profiles, kept in step with Firestore by UserDirectory
+    public static final String TABLE_USERS = "users";
+
+    private static MessengerDatabase instance;
+
+    public static synchronized MessengerDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessengerDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessengerDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createMessageIndex(db);
+        createUserDirectory(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createUserDirectory(db);
+        } else if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_USERS + " ADD COLUMN photo_url TEXT");
+        }
+    }
+
+    private static void createMessageIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_INDEXED_MESSAGES + " ("
+            + "rowid INTEGER PRIMARY KEY, "
+            + "message_id TEXT NOT NULL UNIQUE, "
+            + "chat_id TEXT NOT NULL, "
+            + "sender_id TEXT, "
+            + "timestamp INTEGER NOT NULL, "
+            + "text TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX indexed_messages_chat ON " + TABLE_INDEXED_MESSAGES + " (chat_id, timestamp)");
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGE_FTS + " USING fts4("
+            + "content=\"" + TABLE_INDEXED_MESSAGES + "\", text, tokenize=unicode61)");
+        // Merge index segments a little on every write so posting lists stay compact
+        db.execSQL("INSERT INTO " + TABLE_MESSAGE_FTS + "(" + TABLE_MESSAGE_FTS + ") VALUES('automerge=8')");
+    }
+
+    private static void createUserDirectory(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_USERS + " ("
+            + "uid TEXT PRIMARY KEY, "
+            + "name TEXT, "
+            + "name_key TEXT NOT NULL, " // Normalized name, for sorting and prefix search
+            + "email TEXT, "
+            + "photo_url TEXT, "
+            + "updated_at INTEGER NOT NULL, "
+            + "sync_generation INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX users_name_key ON " + TABLE_USERS + " (name_key)");
+    }
+}
@@ -1,18 +1,22 @@
 package com.example.messenger;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
@@ -22,15 +26,29 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.example.messenger.utils.ErrorHandler;
+import com.example.messenger.utils.SnapshotDispatcher;
 
 public class NewChatActivity extends AppCompatActivity {
     private static final String TAG = "NewChatActivity";
+    private static final int PAGE_SIZE = 50;
+    private static final long SEARCH_DEBOUNCE_MS = 250;
     private EditText searchEditText;
     private RecyclerView userListRecyclerView;
     private UserAdapter userAdapter;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private List<User> userList;
+    private UserDirectory userDirectory;
+    private boolean loadingPage = false;
+    private boolean hasMoreUsers = true;
+    // The list shows either every user or the matches for searchKey. Each new list bumps
+    // listGeneration, and pages that arrive for an older one are dropped.
+    private String searchKey = "";
+    private int listGeneration = 0;
+    private boolean searchOnServer = false;
+    private DocumentSnapshot lastServerDoc;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = () -> showList(ChatSearchIndex.normalize(searchEditText.getText().toString()));
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,6 +73,16 @@ public class NewChatActivity extends AppCompatActivity {
         userList = new ArrayList<>();
         userAdapter = new UserAdapter(this, userList);
         userListRecyclerView.setAdapter(userAdapter);
+        userListRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= userList.size() - 10) {
+                    loadNextPage();
+                }
+            }
+        });
+        userDirectory = UserDirectory.getInstance(this);
 
         // Setup search
         searchEditText.addTextChangedListener(new TextWatcher() {
@@ -63,7 +91,9 @@ public class NewChatActivity extends AppCompatActivity {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                searchUsers(s.toString());
+                // Only the last keystroke of a burst is searched
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
             }
 
             @Override
@@ -74,61 +104,103 @@ public class NewChatActivity extends AppCompatActivity {
         loadUsers();
     }
 
+    // The list is read from the local user directory a page at a time; only profiles
+    // changed since the last sync are fetched from Firestore
     private void loadUsers() {
-        String currentUserId = mAuth.getCurrentUser().getUid();
-        Log.d(TAG, "Loading users. Current user ID: " + currentUserId);
-        
-        db.collection("users")
-                .whereNotEqualTo("uid", currentUserId)
-                .orderBy("name", Query.Direction.ASCENDING)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e(TAG, "Error loading users: " + error.getMessage());
-                        ErrorHandler.handleError(this, "Error loading users", error);
-                        return;
-                    }
+        Log.d(TAG, "Loading users. Current user ID: " + mAuth.getCurrentUser().getUid());
+        userDirectory.sync(() -> showList(searchKey));
+    }
 
-                    userList.clear();
-                    if (value != null) {
-                        Log.d(TAG, "Found " + value.size() + " users");
-                        for (QueryDocumentSnapshot doc : value) {
-                            User user = doc.toObject(User.class);
-                            Log.d(TAG, "User found: " + user.getName() + " (" + user.getEmail() + ")");
-                            userList.add(user);
-                        }
-                        userAdapter.notifyDataSetChanged();
-                    } else {
-                        Log.d(TAG, "No users found in the collection");
-                    }
-                });
+    // Replaces the list with the first page for the given normalized query ("" for everyone).
+    // Searches are answered from the directory when it is fresh, and otherwise from a
+    // prefix range over nameKey on the server.
+    private void showList(String key) {
+        if (isDestroyed()) {
+            return;
+        }
+        listGeneration++;
+        searchKey = key;
+        searchOnServer = !key.isEmpty() && !userDirectory.isFresh();
+        lastServerDoc = null;
+        loadingPage = false;
+        hasMoreUsers = true;
+        userList.clear();
+        userAdapter.notifyDataSetChanged();
+        loadNextPage();
     }
 
-    private void searchUsers(String query) {
+    private void loadNextPage() {
+        if (loadingPage || !hasMoreUsers) {
+            return;
+        }
+        loadingPage = true;
+        int generation = listGeneration;
         String currentUserId = mAuth.getCurrentUser().getUid();
-        Log.d(TAG, "Searching users with query: " + query);
-        
-        db.collection("users")
-                .whereNotEqualTo("uid", currentUserId)
-                .orderBy("name", Query.Direction.ASCENDING)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    userList.clear();
-                    Log.d(TAG, "Search found " + queryDocumentSnapshots.size() + " users");
-                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        User user = doc.toObject(User.class);
-                        if (user.getName().toLowerCase().contains(query.toLowerCase())) {
-                            Log.d(TAG, "Matching user found: " + user.getName() + " (" + user.getEmail() + ")");
-                            userList.add(user);
+        if (searchOnServer) {
+            searchServer(generation, currentUserId);
+        } else if (searchKey.isEmpty()) {
+            userDirectory.loadPage(currentUserId, userList.size(), PAGE_SIZE,
+                users -> appendPage(generation, users, users.size() == PAGE_SIZE));
+        } else {
+            userDirectory.search(searchKey, currentUserId, userList.size(), PAGE_SIZE,
+                users -> appendPage(generation, users, users.size() == PAGE_SIZE));
+        }
+    }
+
+    private void searchServer(int generation, String currentUserId) {
+        Log.d(TAG, "Searching users on the server with key: " + searchKey);
+        Query query = db.collection("users")
+                .orderBy("nameKey")
+                .startAt(searchKey)
+                .endAt(searchKey + "\uf8ff");
+        if (lastServerDoc != null) {
+            query = query.startAfter(lastServerDoc);
+        }
+        query.limit(PAGE_SIZE).get()
+                .addOnSuccessListener(SnapshotDispatcher.background(), page -> {
+                    List<User> users = new ArrayList<>();
+                    for (QueryDocumentSnapshot doc : page) {
+                        if (!doc.getId().equals(currentUserId)) {
+                            users.add(doc.toObject(User.class));
                         }
                     }
-                    userAdapter.notifyDataSetChanged();
+                    // Keep what was read so the next search can be answered locally
+                    userDirectory.putUsers(page.getDocuments());
+                    DocumentSnapshot last = page.isEmpty() ? null : page.getDocuments().get(page.size() - 1);
+                    SnapshotDispatcher.postToMain(() -> {
+                        if (generation == listGeneration) {
+                            lastServerDoc = last;
+                        }
+                        appendPage(generation, users, page.size() == PAGE_SIZE);
+                    });
                 })
                 .addOnFailureListener(e -> {
+                    if (generation != listGeneration) {
+                        return;
+                    }
+                    loadingPage = false;
                     Log.e(TAG, "Error searching users: " + e.getMessage());
                     ErrorHandler.handleError(this, "Error searching users", e);
                 });
     }
 
+    private void appendPage(int generation, List<User> users, boolean hasMore) {
+        if (isDestroyed() || generation != listGeneration) {
+            return; // The query changed while this page was loading
+        }
+        loadingPage = false;
+        hasMoreUsers = hasMore;
+        int offset = userList.size();
+        userList.addAll(users);
+        userAdapter.notifyItemRangeInserted(offset, users.size());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacks(searchRunnable);
+    }
+
     @Override
     public boolean onSupportNavigateUp() {
         onBackPressed();
@@ -0,0 +1,84 @@
+package com.example.messenger;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import com.example.messenger.utils.SnapshotDispatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// Loads the profiles of a chat's members, in member order. Profiles already in the local user
+// directory are used as they are; the rest are read with whereIn queries of at most
+// MAX_IDS_PER_QUERY ids, all sent at once, and stored in the directory for next time.
+// A chunk that fails leaves its members out rather than failing the whole list.
+public class ParticipantLoader {
+    private static final String TAG = "ParticipantLoader";
+    private static final int MAX_IDS_PER_QUERY = 10; // Firestore's limit for "in" filters
+
+    public static void load(Context context, List<String> userIds, UserDirectory.Callback<List<User>> callback) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        UserDirectory directory = UserDirectory.getInstance(context);
+        directory.getUsers(ids, cached -> {
+            List<String> missing = new ArrayList<>();
+            for (String userId : ids) {
+                if (!cached.containsKey(userId)) {
+                    missing.add(userId);
+                }
+            }
+            if (missing.isEmpty()) {
+                callback.onResult(inOrder(ids, cached));
+                return;
+            }
+
+            FirebaseFirestore db = FirebaseFirestore.getInstance();
+            List<Task<QuerySnapshot>> chunks = new ArrayList<>();
+            for (int start = 0; start < missing.size(); start += MAX_IDS_PER_QUERY) {
+                List<String> chunk = new ArrayList<>(missing.subList(start, Math.min(start + MAX_IDS_PER_QUERY, missing.size())));
+                chunks.add(db.collection("users").whereIn(FieldPath.documentId(), chunk).get());
+            }
+            Tasks.whenAllComplete(chunks).addOnSuccessListener(SnapshotDispatcher.background(), done -> {
+                Map<String, User> users = new HashMap<>(cached);
+                List<DocumentSnapshot> fetched = new ArrayList<>();
+                for (Task<QuerySnapshot> chunk : chunks) {
+                    if (!chunk.isSuccessful()) {
+                        Log.e(TAG, "Error loading a chunk of participants", chunk.getException());
+                        continue;
+                    }
+                    for (DocumentSnapshot doc : chunk.getResult().getDocuments()) {
+                        User user = doc.toObject(User.class);
+                        if (user != null) {
+                            user.setUid(doc.getId());
+                            users.put(doc.getId(), user);
+                            fetched.add(doc);
+                        }
+                    }
+                }
+                directory.putUsers(fetched);
+                List<User> result = inOrder(ids, users);
+                SnapshotDispatcher.postToMain(() -> callback.onResult(result));
+            });
+        });
+    }
+
+    private static List<User> inOrder(List<String> ids, Map<String, User> users) {
+        List<User> result = new ArrayList<>();
+        for (String userId : ids) {
+            User user = users.get(userId);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+}
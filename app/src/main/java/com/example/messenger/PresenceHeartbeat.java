@@ -0,0 +1,151 @@
+package com.example.messenger;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes the signed-in user's presence as a heartbeat while any activity is started. Other
+// clients treat a user as online only while isOnline is set and heartbeatAt is recent (see
+// PresenceManager), so a process that is killed goes offline on its own once the heartbeats
+// stop. heartbeatAt is a server timestamp and freshness is judged on the server clock. A
+// heartbeat that would repeat the last written state within the interval is skipped, and going
+// to the background is delayed briefly so activity transitions do not flip it. Main thread only.
+public class PresenceHeartbeat implements Application.ActivityLifecycleCallbacks {
+    private static final String TAG = "PresenceHeartbeat";
+    public static final long HEARTBEAT_INTERVAL_MS = 60_000;
+    private static final long BACKGROUND_DELAY_MS = 5_000;
+
+    private static PresenceHeartbeat instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable heartbeatRunnable = this::beat;
+    private final Runnable backgroundRunnable = this::goOffline;
+    private int startedActivities = 0;
+    private boolean foreground = false;
+    private String lastWrittenUserId;
+    private boolean lastWrittenOnline = false;
+    private long lastWriteAt = 0;
+    private volatile long serverClockOffsetMs = 0; // Server time minus local time
+
+    public static synchronized PresenceHeartbeat getInstance() {
+        if (instance == null) {
+            instance = new PresenceHeartbeat();
+        }
+        return instance;
+    }
+
+    public boolean isForeground() {
+        return foreground;
+    }
+
+    // Best estimate of the current server time; local time until a heartbeat has been acknowledged
+    public long serverNow() {
+        return System.currentTimeMillis() + serverClockOffsetMs;
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        if (startedActivities++ == 0) {
+            handler.removeCallbacks(backgroundRunnable);
+            if (!foreground) {
+                foreground = true;
+                beat();
+                PresenceManager.getInstance().refresh();
+            }
+        }
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        if (--startedActivities == 0) {
+            handler.postDelayed(backgroundRunnable, BACKGROUND_DELAY_MS);
+        }
+    }
+
+    // Marks the current user offline right away, e.g. before signing out. Heartbeats carry on
+    // and pick up whoever signs in next.
+    public void markOffline() {
+        write(false);
+    }
+
+    private void goOffline() {
+        foreground = false;
+        handler.removeCallbacks(heartbeatRunnable);
+        write(false);
+    }
+
+    private void beat() {
+        handler.removeCallbacks(heartbeatRunnable);
+        write(true);
+        handler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MS);
+    }
+
+    private void write(boolean online) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean sameUser = user.getUid().equals(lastWrittenUserId);
+        boolean stateChanged = !sameUser || online != lastWrittenOnline;
+        if (!stateChanged && (!online || now - lastWriteAt < HEARTBEAT_INTERVAL_MS / 2)) {
+            return; // Nothing new to tell other clients yet
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("lastSeen", now);
+        updates.put("heartbeatAt", FieldValue.serverTimestamp());
+        if (stateChanged) {
+            updates.put("isOnline", online);
+        }
+        lastWrittenUserId = user.getUid();
+        lastWrittenOnline = online;
+        lastWriteAt = now;
+        DocumentReference userRef = FirebaseFirestore.getInstance().collection("users").document(user.getUid());
+        userRef.update(updates)
+            .addOnSuccessListener(aVoid -> measureClockOffset(userRef))
+            .addOnFailureListener(e -> Log.w(TAG, "Presence write failed", e));
+    }
+
+    // The acknowledged write leaves the server's heartbeatAt in the local cache, so this costs no read
+    private void measureClockOffset(DocumentReference userRef) {
+        long ackedAt = System.currentTimeMillis();
+        userRef.get(Source.CACHE).addOnSuccessListener(doc -> {
+            Timestamp heartbeatAt = doc.getTimestamp("heartbeatAt");
+            if (heartbeatAt != null) {
+                serverClockOffsetMs = heartbeatAt.toDate().getTime() - ackedAt;
+            }
+        });
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {}
+}
@@ -0,0 +1,202 @@
+package com.example.messenger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import com.example.messenger.utils.SnapshotDispatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Process-wide presence subscriptions. Rows acquire the user they currently show and release
+// it when they are recycled or rebound to someone else, so only distinct users on screen are
+// tracked, however long the list has been scrolled. A user nobody shows any more is kept for
+// a short grace period, which avoids refetching while scrolling back and forth.
+// Presence is read in whereIn batches rather than through one listener per user: newly
+// acquired users are fetched together after a short delay, and everyone tracked is polled
+// while the app is in the foreground, once per heartbeat interval since more frequent polls
+// could not see anything new. A user counts as online while isOnline is set and the last
+// heartbeat (see PresenceHeartbeat) is recent on the server clock. Main thread only.
+public class PresenceManager {
+    private static final String TAG = "PresenceManager";
+    private static final long RELEASE_GRACE_MS = 10_000;
+    private static final long FETCH_COALESCE_MS = 200;
+    private static final long POLL_INTERVAL_MS = PresenceHeartbeat.HEARTBEAT_INTERVAL_MS;
+    private static final long ONLINE_WINDOW_MS = PresenceHeartbeat.HEARTBEAT_INTERVAL_MS * 5 / 2;
+    private static final int MAX_IDS_PER_QUERY = 10;
+
+    public interface Observer {
+        void onPresenceChanged(String userId, boolean online);
+    }
+
+    private static PresenceManager instance;
+
+    private final FirebaseFirestore db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    private final Set<String> awaitingFetch = new HashSet<>();
+    private final Runnable fetchRunnable = this::fetchAwaiting;
+    private final Runnable pollRunnable = this::poll;
+
+    public static synchronized PresenceManager getInstance() {
+        if (instance == null) {
+            instance = new PresenceManager();
+        }
+        return instance;
+    }
+
+    private PresenceManager() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    // Starts (or keeps) tracking a user for this observer; the last known state is delivered right away
+    public void acquire(String userId, Observer observer) {
+        Subscription subscription = subscriptions.get(userId);
+        if (subscription == null) {
+            subscription = new Subscription(userId);
+            subscriptions.put(userId, subscription);
+            awaitingFetch.add(userId);
+            handler.removeCallbacks(fetchRunnable);
+            handler.postDelayed(fetchRunnable, FETCH_COALESCE_MS);
+            if (subscriptions.size() == 1) {
+                handler.removeCallbacks(pollRunnable);
+                handler.postDelayed(pollRunnable, POLL_INTERVAL_MS);
+            }
+        }
+        handler.removeCallbacks(subscription.releaseRunnable);
+        subscription.observers.add(observer);
+        if (subscription.known) {
+            observer.onPresenceChanged(userId, subscription.isOnlineNow());
+        }
+    }
+
+    public void release(String userId, Observer observer) {
+        Subscription subscription = subscriptions.get(userId);
+        if (subscription == null || !subscription.observers.remove(observer)) {
+            return;
+        }
+        if (subscription.observers.isEmpty()) {
+            handler.postDelayed(subscription.releaseRunnable, RELEASE_GRACE_MS);
+        }
+    }
+
+    // Refetches everyone tracked, e.g. when the app comes back to the foreground
+    public void refresh() {
+        handler.removeCallbacks(pollRunnable);
+        poll();
+    }
+
+    // Users currently tracked, including those still in their grace period
+    public int activeCount() {
+        return subscriptions.size();
+    }
+
+    private void poll() {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        if (PresenceHeartbeat.getInstance().isForeground()) {
+            // Heartbeats age even when nothing is refetched
+            for (Subscription subscription : subscriptions.values()) {
+                subscription.publish();
+            }
+            fetch(new ArrayList<>(subscriptions.keySet()));
+        }
+        handler.postDelayed(pollRunnable, POLL_INTERVAL_MS);
+    }
+
+    private void fetchAwaiting() {
+        List<String> userIds = new ArrayList<>(awaitingFetch);
+        awaitingFetch.clear();
+        fetch(userIds);
+    }
+
+    private void fetch(List<String> userIds) {
+        for (int start = 0; start < userIds.size(); start += MAX_IDS_PER_QUERY) {
+            List<String> chunk = userIds.subList(start, Math.min(start + MAX_IDS_PER_QUERY, userIds.size()));
+            List<String> requested = new ArrayList<>(chunk);
+            db.collection("users")
+                .whereIn(FieldPath.documentId(), requested)
+                .get()
+                .addOnSuccessListener(SnapshotDispatcher.background(), querySnapshot -> {
+                    Map<String, long[]> states = new HashMap<>(); // userId -> {isOnline, heartbeatAt}
+                    for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
+                        Boolean isOnline = doc.getBoolean("isOnline");
+                        // Users without a server heartbeat yet count as offline
+                        Timestamp heartbeatAt = doc.getTimestamp("heartbeatAt");
+                        states.put(doc.getId(), new long[] {
+                            Boolean.TRUE.equals(isOnline) ? 1 : 0,
+                            heartbeatAt != null ? heartbeatAt.toDate().getTime() : 0
+                        });
+                    }
+                    SnapshotDispatcher.postToMain(() -> {
+                        for (String userId : requested) {
+                            Subscription subscription = subscriptions.get(userId);
+                            long[] state = states.get(userId);
+                            if (subscription != null) {
+                                // A missing user document counts as offline
+                                subscription.update(state != null && state[0] == 1, state != null ? state[1] : 0);
+                            }
+                        }
+                    });
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error fetching presence for " + requested.size() + " user(s)", e));
+        }
+    }
+
+    private class Subscription {
+        final String userId;
+        final Set<Observer> observers = new HashSet<>();
+        final Runnable releaseRunnable = this::stop;
+        boolean known = false;
+        boolean isOnlineFlag = false;
+        long heartbeatAt = 0; // Server time, in ms
+        boolean published = false; // Last state sent to observers; rows start out offline
+
+        Subscription(String userId) {
+            this.userId = userId;
+        }
+
+        boolean isOnlineNow() {
+            return isOnlineFlag && PresenceHeartbeat.getInstance().serverNow() - heartbeatAt < ONLINE_WINDOW_MS;
+        }
+
+        void update(boolean isOnline, long seen) {
+            known = true;
+            isOnlineFlag = isOnline;
+            heartbeatAt = seen;
+            publish();
+        }
+
+        // Tells observers only when the derived state actually changed
+        void publish() {
+            if (!known) {
+                return;
+            }
+            boolean online = isOnlineNow();
+            if (online == published) {
+                return;
+            }
+            published = online;
+            for (Observer observer : new ArrayList<>(observers)) {
+                observer.onPresenceChanged(userId, online);
+            }
+        }
+
+        void stop() {
+            subscriptions.remove(userId);
+            awaitingFetch.remove(userId);
+            Log.d(TAG, "Released " + userId + ", " + subscriptions.size() + " tracked");
+        }
+    }
+}
@@ -22,16 +22,24 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.progressindicator.CircularProgressIndicator;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import com.example.messenger.utils.AvatarLoader;
+import com.example.messenger.utils.ImageCompressor;
 import com.example.messenger.utils.ErrorHandler;
 import com.google.android.material.snackbar.Snackbar;
 import com.example.messenger.utils.TextDrawableHelper;
 
 public class ProfileSettingsActivity extends AppCompatActivity {
     private static final String TAG = "ProfileSettingsActivity";
+    private static final int PHOTO_MAX_DIMENSION = 512; // px; avatars are never shown larger
+    private static final int PHOTO_JPEG_QUALITY = 85;
     private ImageView profileImageView;
     private TextInputEditText nameInput;
     private MaterialButton saveButton;
@@ -39,6 +47,13 @@ public class ProfileSettingsActivity extends AppCompatActivity {
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
     private boolean isSaving = false;
+    private String currentPhotoUrl;
+    private final ActivityResultLauncher<String> pickPhotoLauncher =
+        registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
+            if (uri != null) {
+                uploadPhoto(uri);
+            }
+        });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,6 +81,11 @@ public class ProfileSettingsActivity extends AppCompatActivity {
 
         // Setup click listeners
         saveButton.setOnClickListener(v -> saveProfile());
+        profileImageView.setOnClickListener(v -> {
+            if (!isSaving) {
+                pickPhotoLauncher.launch("image/*");
+            }
+        });
     }
 
     private void loadUserData() {
@@ -78,9 +98,8 @@ public class ProfileSettingsActivity extends AppCompatActivity {
                 User user = documentSnapshot.toObject(User.class);
                 if (user != null) {
                     nameInput.setText(user.getName());
-                    profileImageView.setImageDrawable(
-                        TextDrawableHelper.create(this, user.getName())
-                    );
+                    currentPhotoUrl = user.getPhotoUrl();
+                    AvatarLoader.load(profileImageView, currentPhotoUrl, user.getName());
                 }
                 showLoading(false);
             })
@@ -113,10 +132,13 @@ public class ProfileSettingsActivity extends AppCompatActivity {
 
     private void updateUserProfile(String userId, String name) {
         Log.d(TAG, "Updating user profile...");
-        User user = new User(userId, mAuth.getCurrentUser().getEmail(), name);
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("name", name);
+        updates.put("nameKey", ChatSearchIndex.normalize(name));
+        updates.put("updatedAt", FieldValue.serverTimestamp());
 
         db.collection("users").document(userId)
-            .set(user)
+            .update(updates)
             .addOnSuccessListener(aVoid -> {
                 Log.d(TAG, "Profile updated successfully");
                 runOnUiThread(() -> {
@@ -141,6 +163,67 @@ public class ProfileSettingsActivity extends AppCompatActivity {
             });
     }
 
+    // The photo is downscaled before upload, and each upload gets a new path so the new URL
+    // never hits an old copy in anyone's image cache
+    private void uploadPhoto(Uri uri) {
+        String userId = mAuth.getCurrentUser().getUid();
+        isSaving = true;
+        showLoading(true);
+        ImageCompressor.compress(getContentResolver(), uri, PHOTO_MAX_DIMENSION, PHOTO_JPEG_QUALITY,
+            new ImageCompressor.Callback() {
+                @Override
+                public void onCompressed(ImageCompressor.Result result) {
+                    Log.d(TAG, "Uploading profile photo, " + result.jpeg.length + " bytes");
+                    StorageReference photoRef = FirebaseStorage.getInstance().getReference()
+                        .child("profile_photos/" + userId + "/" + UUID.randomUUID() + ".jpg");
+                    StorageMetadata metadata = new StorageMetadata.Builder()
+                        .setContentType("image/jpeg")
+                        .setCacheControl("public, max-age=31536000")
+                        .build();
+                    photoRef.putBytes(result.jpeg, metadata)
+                        .continueWithTask(task -> {
+                            if (!task.isSuccessful()) {
+                                throw task.getException();
+                            }
+                            return photoRef.getDownloadUrl();
+                        })
+                        .addOnSuccessListener(downloadUrl -> savePhotoUrl(userId, downloadUrl.toString()))
+                        .addOnFailureListener(e -> {
+                            ErrorHandler.handleError(ProfileSettingsActivity.this, "Error uploading photo", e);
+                            handleSaveComplete();
+                        });
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    ErrorHandler.handleError(ProfileSettingsActivity.this, "Could not read that image", e);
+                    handleSaveComplete();
+                }
+            });
+    }
+
+    private void savePhotoUrl(String userId, String photoUrl) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("photoUrl", photoUrl);
+        updates.put("updatedAt", FieldValue.serverTimestamp());
+        db.collection("users").document(userId)
+            .update(updates)
+            .addOnSuccessListener(aVoid -> {
+                String previousUrl = currentPhotoUrl;
+                currentPhotoUrl = photoUrl;
+                AvatarLoader.load(profileImageView, photoUrl, nameInput.getText().toString());
+                if (previousUrl != null) {
+                    FirebaseStorage.getInstance().getReferenceFromUrl(previousUrl).delete()
+                        .addOnFailureListener(e -> Log.w(TAG, "Could not delete the previous photo", e));
+                }
+                handleSaveComplete();
+            })
+            .addOnFailureListener(e -> {
+                ErrorHandler.handleError(this, "Error saving photo", e);
+                handleSaveComplete();
+            });
+    }
+
     private void handleSaveComplete() {
         isSaving = false;
         showLoading(false);
@@ -0,0 +1,136 @@
+package com.example.messenger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.example.messenger.utils.FirestoreBatches;
+
+// Collects received messages as they are shown on screen and writes their read state in one
+// batch per chat, either after a short quiet period or when the chat screen goes away.
+// Rebinding the same message, or binding one that is already read, never causes a write.
+public class ReadReceiptAggregator {
+    private static final String TAG = "ReadReceiptAggregator";
+    private static final long FLUSH_DELAY_MS = 1500;
+
+    private final FirebaseFirestore db;
+    private final String chatId;
+    private final String currentUserId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final Map<String, Message> pending = new LinkedHashMap<>();
+    private final Set<String> written = new HashSet<>();
+    private Timestamp ownWatermark;
+
+    // Counters for how much the aggregation saves
+    private int receiptsRequested = 0;
+    private int commits = 0;
+    private int documentsWritten = 0; // Every receipt ref plus each chat watermark update
+
+    public ReadReceiptAggregator(String chatId, String currentUserId) {
+        this.db = FirebaseFirestore.getInstance();
+        this.chatId = chatId;
+        this.currentUserId = currentUserId;
+    }
+
+    public void setOwnWatermark(Timestamp watermark) {
+        if (watermark != null && (ownWatermark == null || watermark.compareTo(ownWatermark) > 0)) {
+            ownWatermark = watermark;
+        }
+    }
+
+    // Called from onBindViewHolder; only records the message, the write happens later
+    public void onMessageShown(Message message) {
+        if (currentUserId.equals(message.getSenderId()) || message.isPending()) {
+            return;
+        }
+        receiptsRequested++;
+        if ("read".equals(message.getStatus()) || isCoveredByWatermark(message)
+                || written.contains(message.getId()) || pending.containsKey(message.getId())) {
+            return;
+        }
+        pending.put(message.getId(), message);
+        if (pending.size() == 1) {
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    // Writes everything collected so far as a single batch
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Timestamp newest = null;
+        List<DocumentReference> refs = new ArrayList<>();
+        for (Message message : pending.values()) {
+            refs.add(db.collection("chats").document(chatId).collection("messages").document(message.getId()));
+            if (message.getTimestamp() != null && (newest == null || message.getTimestamp().compareTo(newest) > 0)) {
+                newest = message.getTimestamp();
+            }
+        }
+        written.addAll(pending.keySet());
+        pending.clear();
+
+        Map<String, Object> statusUpdate = new HashMap<>();
+        statusUpdate.put("status", "read");
+        int inFirstBatch = Math.min(refs.size(), FirestoreBatches.MAX_WRITES_PER_BATCH - 1);
+        WriteBatch batch = db.batch();
+        for (DocumentReference ref : refs.subList(0, inFirstBatch)) {
+            batch.update(ref, statusUpdate);
+        }
+        // The watermark only ever moves forward
+        if (newest != null && (ownWatermark == null || newest.compareTo(ownWatermark) > 0)) {
+            Map<String, Object> chatUpdates = new HashMap<>();
+            chatUpdates.put("lastRead." + currentUserId, newest);
+            chatUpdates.put("unreadCounts." + currentUserId, 0);
+            batch.update(db.collection("chats").document(chatId), chatUpdates);
+            ownWatermark = newest;
+            documentsWritten++;
+        }
+        documentsWritten += refs.size();
+        batch.commit();
+        commits++;
+        if (refs.size() > inFirstBatch) {
+            FirestoreBatches.updateInChunks(db, refs.subList(inFirstBatch, refs.size()), statusUpdate);
+            commits += (refs.size() - inFirstBatch + FirestoreBatches.MAX_WRITES_PER_BATCH - 1) / FirestoreBatches.MAX_WRITES_PER_BATCH;
+        }
+        Log.d(TAG, "Flushed " + refs.size() + " receipt(s) for chat " + chatId
+            + "; requested " + receiptsRequested + ", commits " + commits + ", documents written " + documentsWritten + ", writes avoided " + getWritesAvoided());
+    }
+
+    public int getReceiptsRequested() {
+        return receiptsRequested;
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    // Batching saves round trips but not document writes, so only receipts that never needed a write count
+    public int getWritesAvoided() {
+        return receiptsRequested - documentsWritten;
+    }
+
+    private boolean isCoveredByWatermark(Message message) {
+        return ownWatermark != null && message.getTimestamp() != null && message.getTimestamp().compareTo(ownWatermark) <= 0;
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.messenger;
 
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.ServerTimestamp;
+
 public class User {
     private String uid;
     private String email;
     private String name;
+    private String nameKey; // Normalized name (ChatSearchIndex.normalize), for prefix queries
+    private String photoUrl; // Download URL of the profile photo; null shows the letter avatar
     private boolean isOnline;
     private long lastSeen;
+    private Timestamp heartbeatAt; // Server time of the last presence heartbeat (see PresenceHeartbeat)
+    @ServerTimestamp
+    private Timestamp updatedAt; // Set by the server on every profile write, drives directory sync
 
     public User() {
         // Required empty constructor for Firestore
@@ -15,6 +23,7 @@ public class User {
         this.uid = uid;
         this.email = email;
         this.name = name != null && !name.trim().isEmpty() ? name : email.split("@")[0];
+        this.nameKey = ChatSearchIndex.normalize(this.name);
         this.isOnline = false;
         this.lastSeen = System.currentTimeMillis();
     }
@@ -43,6 +52,22 @@ public class User {
         this.name = name;
     }
 
+    public String getNameKey() {
+        return nameKey;
+    }
+
+    public void setNameKey(String nameKey) {
+        this.nameKey = nameKey;
+    }
+
+    public String getPhotoUrl() {
+        return photoUrl;
+    }
+
+    public void setPhotoUrl(String photoUrl) {
+        this.photoUrl = photoUrl;
+    }
+
     public boolean isOnline() {
         return isOnline;
     }
@@ -58,4 +83,20 @@ public class User {
     public void setLastSeen(long lastSeen) {
         this.lastSeen = lastSeen;
     }
+
+    public Timestamp getHeartbeatAt() {
+        return heartbeatAt;
+    }
+
+    public void setHeartbeatAt(Timestamp heartbeatAt) {
+        this.heartbeatAt = heartbeatAt;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Timestamp updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
\ No newline at end of file
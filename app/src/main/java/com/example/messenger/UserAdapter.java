@@ -12,22 +12,20 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.List;
 
+import com.example.messenger.utils.ErrorHandler;
+
 public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder> {
     private Context context;
     private List<User> userList;
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
 
     public UserAdapter(Context context, List<User> userList) {
         this.context = context;
         this.userList = userList;
         this.mAuth = FirebaseAuth.getInstance();
-        this.db = FirebaseFirestore.getInstance();
     }
 
     @NonNull
@@ -50,55 +48,18 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
 
     private void createOrOpenChat(User otherUser) {
         String currentUserId = mAuth.getCurrentUser().getUid();
-        
-        // Check if chat already exists
-        db.collection("chats")
-                .whereArrayContains("participants", currentUserId)
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                        Chat chat = doc.toObject(Chat.class);
-                        if (chat.getParticipants().contains(otherUser.getUid())) {
-                            // Chat exists, open it
-                            openChat(doc.getId(), otherUser.getUid());
-                            return;
-                        }
-                    }
-                    // No existing chat, create new one
-                    createNewChat(currentUserId, otherUser);
-                });
-    }
 
-    private void createNewChat(String currentUserId, User otherUser) {
-        // Fetch current user's name from Firestore
-        db.collection("users").document(currentUserId).get().addOnSuccessListener(currentUserDoc -> {
-            String currentUserName = "";
-            if (currentUserDoc.exists()) {
-                User currentUser = currentUserDoc.toObject(User.class);
-                if (currentUser != null && currentUser.getName() != null) {
-                    currentUserName = currentUser.getName();
-                }
-            }
-
-            // Store both users' names in the chat document for easy access
-            java.util.Map<String, Object> chatData = new java.util.HashMap<>();
-            java.util.List<String> participants = java.util.Arrays.asList(currentUserId, otherUser.getUid());
-            chatData.put("participants", participants);
-            chatData.put("lastMessageText", "Chat started");
-            chatData.put("lastMessageTime", com.google.firebase.Timestamp.now());
-
-            // Fix: create the userNames map outside the double-brace block
+        // The current user's name comes from the local directory; it is only stored if the chat is new
+        UserDirectory.getInstance(context).getUsers(java.util.Collections.singletonList(currentUserId), cached -> {
+            User currentUser = cached.get(currentUserId);
             java.util.Map<String, String> userNames = new java.util.HashMap<>();
-            userNames.put(currentUserId, currentUserName);
+            userNames.put(currentUserId, currentUser != null ? currentUser.getName() : "");
             userNames.put(otherUser.getUid(), otherUser.getName());
-            chatData.put("userNames", userNames);
-
-        db.collection("chats")
-                .add(chatData)
-                .addOnSuccessListener(documentReference -> {
-                    openChat(documentReference.getId(), otherUser.getUid());
-                });
-                });
+
+            DirectChatResolver.getInstance().resolve(currentUserId, otherUser.getUid(), userNames)
+                    .addOnSuccessListener(chatId -> openChat(chatId, otherUser.getUid()))
+                    .addOnFailureListener(e -> ErrorHandler.handleError(context, "Error opening chat", e));
+        });
     }
 
     private void openChat(String chatId, String otherUserId) {
@@ -0,0 +1,300 @@
+package com.example.messenger;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import com.example.messenger.utils.SnapshotDispatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+// Local copy of the users collection, shared by every screen that lists or picks users. After
+// one full pass, sync only reads profiles whose updatedAt is newer than the last one seen, in
+// pages, and not more often than SYNC_TTL_MS. A full pass is repeated every FULL_SYNC_TTL_MS to
+// drop users that were deleted. Screens read from the local table, so opening them costs no
+// Firestore reads beyond the delta. Database work runs on one background thread.
+public class UserDirectory {
+    private static final String TAG = "UserDirectory";
+    private static final String PREFS_NAME = "user_directory";
+    private static final String KEY_WATERMARK_SECONDS = "watermark_seconds";
+    private static final String KEY_WATERMARK_NANOS = "watermark_nanos";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_LAST_FULL_SYNC = "last_full_sync";
+    private static final String KEY_GENERATION = "generation";
+    private static final long SYNC_TTL_MS = 10 * 60_000;
+    private static final long FULL_SYNC_TTL_MS = 7 * 24 * 60 * 60_000L;
+    private static final int SYNC_PAGE_SIZE = 200;
+    private static final Pattern LIKE_SPECIAL = Pattern.compile("[\\\\%_]");
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static UserDirectory instance;
+
+    private final MessengerDatabase database;
+    private final SharedPreferences prefs;
+    private final FirebaseFirestore db;
+    private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "user-directory"));
+    private final List<Runnable> syncCallbacks = new ArrayList<>(); // Main thread only
+    private boolean syncing = false;
+
+    public static synchronized UserDirectory getInstance(Context context) {
+        if (instance == null) {
+            instance = new UserDirectory(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UserDirectory(Context context) {
+        database = MessengerDatabase.getInstance(context);
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        db = FirebaseFirestore.getInstance();
+    }
+
+    // Brings the local copy up to date if it is older than the TTL; onDone runs on the main thread either way
+    public void sync(Runnable onDone) {
+        if (onDone != null) {
+            syncCallbacks.add(onDone);
+        }
+        if (syncing) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean full = now - prefs.getLong(KEY_LAST_FULL_SYNC, 0) > FULL_SYNC_TTL_MS;
+        if (!full && now - prefs.getLong(KEY_LAST_SYNC, 0) < SYNC_TTL_MS) {
+            finishSync();
+            return;
+        }
+        syncing = true;
+        long generation = prefs.getLong(KEY_GENERATION, 0) + 1;
+        Log.d(TAG, (full ? "Full" : "Delta") + " user sync starting");
+        fetchPage(full, generation, null, watermark());
+    }
+
+    // One page of users sorted by name, for lists that load more as they scroll
+    public void loadPage(String excludeUid, int offset, int limit, Callback<List<User>> callback) {
+        query("SELECT uid, name, email, photo_url FROM " + MessengerDatabase.TABLE_USERS
+                + " WHERE uid != ? ORDER BY name_key, uid LIMIT " + limit + " OFFSET " + offset,
+            new String[] {excludeUid != null ? excludeUid : ""}, callback);
+    }
+
+    // Users with a name word starting with the query, sorted by name; the query is matched
+    // on normalized keys, so case and accents are ignored
+    public void search(String query, String excludeUid, int offset, int limit, Callback<List<User>> callback) {
+        String key = LIKE_SPECIAL.matcher(ChatSearchIndex.normalize(query)).replaceAll("\\\\$0");
+        query("SELECT uid, name, email, photo_url FROM " + MessengerDatabase.TABLE_USERS
+                + " WHERE (name_key LIKE ? ESCAPE '\\' OR name_key LIKE ? ESCAPE '\\') AND uid != ?"
+                + " ORDER BY name_key, uid LIMIT " + limit + " OFFSET " + offset,
+            new String[] {key + "%", "% " + key + "%", excludeUid != null ? excludeUid : ""}, callback);
+    }
+
+    // True when the local copy was synced within the TTL, so it can answer searches on its own
+    public boolean isFresh() {
+        return !syncing && System.currentTimeMillis() - prefs.getLong(KEY_LAST_SYNC, 0) < SYNC_TTL_MS;
+    }
+
+    // Cached profiles for the given ids; ids that are not cached are simply missing from the map
+    public void getUsers(Collection<String> uids, Callback<Map<String, User>> callback) {
+        List<String> ids = new ArrayList<>(uids);
+        executor.execute(() -> {
+            Map<String, User> users = readUsers(ids);
+            SnapshotDispatcher.postToMain(() -> callback.onResult(users));
+        });
+    }
+
+    // Same as getUsers, but reads on the calling thread; for background workers only
+    public Map<String, User> getUsersNow(Collection<String> uids) {
+        return readUsers(new ArrayList<>(uids));
+    }
+
+    // Stores profiles that were read elsewhere, so the next lookup is local
+    public void putUsers(List<DocumentSnapshot> docs) {
+        executor.execute(() -> {
+            SQLiteDatabase sqlite = database.getWritableDatabase();
+            long generation = prefs.getLong(KEY_GENERATION, 0);
+            sqlite.beginTransaction();
+            try {
+                for (DocumentSnapshot doc : docs) {
+                    upsert(sqlite, doc, generation);
+                }
+                sqlite.setTransactionSuccessful();
+            } finally {
+                sqlite.endTransaction();
+            }
+        });
+    }
+
+    private void fetchPage(boolean full, long generation, DocumentSnapshot after, Timestamp watermark) {
+        Query query;
+        if (full) {
+            query = db.collection("users").orderBy(FieldPath.documentId());
+        } else if (watermark != null) {
+            query = db.collection("users").whereGreaterThan("updatedAt", watermark).orderBy("updatedAt");
+        } else {
+            query = db.collection("users").orderBy("updatedAt");
+        }
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+        query.limit(SYNC_PAGE_SIZE).get()
+            .addOnSuccessListener(executor, page -> {
+                Timestamp newest = storePage(page, generation);
+                boolean more = page.size() >= SYNC_PAGE_SIZE;
+                DocumentSnapshot last = page.isEmpty() ? null : page.getDocuments().get(page.size() - 1);
+                if (newest != null && (watermark() == null || newest.compareTo(watermark()) > 0)) {
+                    saveWatermark(newest);
+                }
+                if (!more && full) {
+                    sweep(generation);
+                }
+                SnapshotDispatcher.postToMain(() -> {
+                    if (more) {
+                        fetchPage(full, generation, last, watermark);
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    SharedPreferences.Editor editor = prefs.edit().putLong(KEY_LAST_SYNC, now);
+                    if (full) {
+                        editor.putLong(KEY_LAST_FULL_SYNC, now).putLong(KEY_GENERATION, generation);
+                    }
+                    editor.apply();
+                    syncing = false;
+                    finishSync();
+                });
+            })
+            .addOnFailureListener(e -> {
+                // Keep what was stored so far; the next sync continues from the saved watermark
+                Log.w(TAG, "User sync failed", e);
+                syncing = false;
+                finishSync();
+            });
+    }
+
+    private Timestamp storePage(QuerySnapshot page, long generation) {
+        Timestamp newest = null;
+        SQLiteDatabase sqlite = database.getWritableDatabase();
+        sqlite.beginTransaction();
+        try {
+            for (DocumentSnapshot doc : page.getDocuments()) {
+                upsert(sqlite, doc, generation);
+                Timestamp updatedAt = doc.getTimestamp("updatedAt");
+                if (updatedAt != null && (newest == null || updatedAt.compareTo(newest) > 0)) {
+                    newest = updatedAt;
+                }
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+        return newest;
+    }
+
+    private void upsert(SQLiteDatabase sqlite, DocumentSnapshot doc, long generation) {
+        User user = doc.toObject(User.class);
+        if (user == null) {
+            return;
+        }
+        String name = doc.getString("name");
+        String email = user.getEmail();
+        String displayName = name != null && !name.trim().isEmpty() ? name
+            : email != null ? email.split("@")[0] : "";
+        ContentValues values = new ContentValues();
+        values.put("uid", doc.getId());
+        values.put("name", displayName);
+        values.put("name_key", ChatSearchIndex.normalize(displayName));
+        values.put("email", email);
+        values.put("photo_url", user.getPhotoUrl());
+        values.put("updated_at", user.getUpdatedAt() != null ? user.getUpdatedAt().toDate().getTime() : 0);
+        values.put("sync_generation", generation);
+        sqlite.insertWithOnConflict(MessengerDatabase.TABLE_USERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // After a full pass, anything not seen in it no longer exists on the server
+    private void sweep(long generation) {
+        int removed = database.getWritableDatabase().delete(MessengerDatabase.TABLE_USERS,
+            "sync_generation < ?", new String[] {String.valueOf(generation)});
+        Log.d(TAG, "Full user sync done, removed " + removed + " stale profile(s)");
+    }
+
+    private Map<String, User> readUsers(List<String> ids) {
+        Map<String, User> users = new HashMap<>();
+        SQLiteDatabase sqlite = database.getReadableDatabase();
+        for (int start = 0; start < ids.size(); start += 500) {
+            List<String> chunk = ids.subList(start, Math.min(start + 500, ids.size()));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            try (Cursor cursor = sqlite.rawQuery("SELECT uid, name, email, photo_url FROM " + MessengerDatabase.TABLE_USERS
+                    + " WHERE uid IN (" + placeholders + ")", chunk.toArray(new String[0]))) {
+                while (cursor.moveToNext()) {
+                    User user = fromCursor(cursor);
+                    users.put(user.getUid(), user);
+                }
+            }
+        }
+        return users;
+    }
+
+    private void query(String sql, String[] args, Callback<List<User>> callback) {
+        executor.execute(() -> {
+            List<User> users = new ArrayList<>();
+            try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, args)) {
+                while (cursor.moveToNext()) {
+                    users.add(fromCursor(cursor));
+                }
+            }
+            SnapshotDispatcher.postToMain(() -> callback.onResult(users));
+        });
+    }
+
+    private static User fromCursor(Cursor cursor) {
+        User user = new User();
+        user.setUid(cursor.getString(0));
+        user.setName(cursor.getString(1));
+        user.setEmail(cursor.getString(2));
+        user.setPhotoUrl(cursor.getString(3));
+        return user;
+    }
+
+    private Timestamp watermark() {
+        if (!prefs.contains(KEY_WATERMARK_SECONDS)) {
+            return null;
+        }
+        return new Timestamp(prefs.getLong(KEY_WATERMARK_SECONDS, 0), prefs.getInt(KEY_WATERMARK_NANOS, 0));
+    }
+
+    private void saveWatermark(Timestamp watermark) {
+        prefs.edit()
+            .putLong(KEY_WATERMARK_SECONDS, watermark.getSeconds())
+            .putInt(KEY_WATERMARK_NANOS, watermark.getNanoseconds())
+            .apply();
+    }
+
+    private void finishSync() {
+        List<Runnable> callbacks = new ArrayList<>(syncCallbacks);
+        syncCallbacks.clear();
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.messenger.utils;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+
+// Shows a user's profile photo through Glide, with their letter avatar as placeholder and
+// fallback. Photos are requested at the avatar's pixel size and circle-cropped, and that
+// resized result is what Glide keeps in its memory and disk caches. Preloaders must build
+// their requests with request() so the cache keys match what the views load.
+public class AvatarLoader {
+
+    public static void load(ImageView view, String photoUrl, String name) {
+        Context context = view.getContext();
+        Drawable letters = TextDrawableHelper.create(context, name);
+        if (photoUrl == null || photoUrl.isEmpty()) {
+            showDrawable(view, letters);
+            return;
+        }
+        request(Glide.with(view), context, photoUrl)
+            .placeholder(letters)
+            .error(letters)
+            .into(view);
+    }
+
+    // Shows a drawable that is not a photo, cancelling any photo still loading into the view
+    public static void showDrawable(ImageView view, Drawable drawable) {
+        Glide.with(view).clear(view);
+        view.setImageDrawable(drawable);
+    }
+
+    public static void clear(ImageView view) {
+        Glide.with(view).clear(view);
+    }
+
+    public static RequestBuilder<Drawable> request(RequestManager glide, Context context, String photoUrl) {
+        int size = TextDrawableHelper.avatarSizePx(context);
+        return glide.load(photoUrl)
+            .override(size, size)
+            .circleCrop()
+            .diskCacheStrategy(DiskCacheStrategy.RESOURCE);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.messenger.utils;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Applies the same field updates to many documents using as few WriteBatch commits as possible
+public class FirestoreBatches {
+    public static final int MAX_WRITES_PER_BATCH = 500;
+
+    public static Task<Void> updateInChunks(FirebaseFirestore db, List<DocumentReference> refs, Map<String, Object> fields) {
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < refs.size(); start += MAX_WRITES_PER_BATCH) {
+            WriteBatch batch = db.batch();
+            int end = Math.min(start + MAX_WRITES_PER_BATCH, refs.size());
+            for (DocumentReference ref : refs.subList(start, end)) {
+                batch.update(ref, fields);
+            }
+            commits.add(batch.commit());
+        }
+        return Tasks.whenAll(commits);
+    }
+}
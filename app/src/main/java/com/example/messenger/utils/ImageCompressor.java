@@ -0,0 +1,148 @@
+package com.example.messenger.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Turns a picked image into a JPEG small enough to upload. The file is decoded with an
+// inSampleSize that keeps it at least the target size, so a camera photo is never decoded at
+// full resolution, then scaled to fit maxDimension, turned upright and recompressed. Runs on its own
+// background thread; results are posted to the main thread. A thumbnail can be made in the same
+// pass from the already scaled bitmap, so the original is decoded only once.
+public class ImageCompressor {
+    private static final ExecutorService EXECUTOR =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "image-compressor"));
+
+    public interface Callback {
+        void onCompressed(Result result);
+
+        void onError(Exception e);
+    }
+
+    public static void compress(ContentResolver resolver, Uri uri, int maxDimension, int quality, Callback callback) {
+        compress(resolver, uri, maxDimension, 0, quality, callback);
+    }
+
+    // Also makes a thumbnail no larger than thumbnailDimension; 0 skips it
+    public static void compress(ContentResolver resolver, Uri uri, int maxDimension, int thumbnailDimension,
+                                int quality, Callback callback) {
+        EXECUTOR.execute(() -> {
+            try {
+                Result result = compressNow(resolver, uri, maxDimension, thumbnailDimension, quality);
+                SnapshotDispatcher.postToMain(() -> callback.onCompressed(result));
+            } catch (IOException | RuntimeException e) {
+                SnapshotDispatcher.postToMain(() -> callback.onError(e));
+            }
+        });
+    }
+
+    private static Result compressNow(ContentResolver resolver, Uri uri, int maxDimension, int thumbnailDimension,
+                                      int quality) throws IOException {
+        // First pass reads only the dimensions
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(input, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, maxDimension);
+        Bitmap decoded;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            decoded = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+
+        Bitmap scaled = scaleToFit(decoded, maxDimension, rotationOf(resolver, uri));
+        byte[] thumbnail = null;
+        if (thumbnailDimension > 0) {
+            Bitmap small = scaleToFit(scaled, thumbnailDimension, 0);
+            thumbnail = toJpeg(small, quality);
+            if (small != scaled) {
+                small.recycle();
+            }
+        }
+        Result result = new Result(toJpeg(scaled, quality), thumbnail, scaled.getWidth(), scaled.getHeight());
+        if (scaled != decoded) {
+            scaled.recycle();
+        }
+        decoded.recycle();
+        return result;
+    }
+
+    private static byte[] toJpeg(Bitmap bitmap, int quality) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+        return output.toByteArray();
+    }
+
+    // Largest power of two that keeps the longer side at or above maxDimension
+    private static int sampleSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Scales and, for camera photos stored sideways, rotates in the same pass
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxDimension, int rotation) {
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        float scale = longest > maxDimension ? (float) maxDimension / longest : 1f;
+        if (scale == 1f && rotation == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    private static int rotationOf(ContentResolver resolver, Uri uri) {
+        try (InputStream input = resolver.openInputStream(uri)) {
+            int orientation = new ExifInterface(input)
+                .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException | RuntimeException e) {
+            return 0; // No readable EXIF data, e.g. a PNG
+        }
+    }
+
+    public static final class Result {
+        public final byte[] jpeg;
+        public final byte[] thumbnailJpeg; // Null unless a thumbnail was asked for
+        public final int width;
+        public final int height;
+
+        Result(byte[] jpeg, byte[] thumbnailJpeg, int width, int height) {
+            this.jpeg = jpeg;
+            this.thumbnailJpeg = thumbnailJpeg;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.messenger.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Central place for snapshot listeners owned by a screen. Each listener is keyed by its
+// Query or DocumentReference (both compare by value), so registering the same query again
+// for the same owner is a no-op instead of a second listener. Listeners are attached while
+// the owner is started and removed when it stops, and forgotten when it is destroyed.
+// Main thread only.
+public class ListenerRegistry {
+    private static final String TAG = "ListenerRegistry";
+
+    public interface Attacher {
+        // Called every time the owner starts; must return the newly added listener
+        ListenerRegistration attach();
+    }
+
+    private static ListenerRegistry instance;
+
+    private final Map<LifecycleOwner, Map<Object, Entry>> entriesByOwner = new HashMap<>();
+    private int activeCount = 0;
+
+    public static synchronized ListenerRegistry getInstance() {
+        if (instance == null) {
+            instance = new ListenerRegistry();
+        }
+        return instance;
+    }
+
+    // Returns false if the owner already has a listener for this key
+    public boolean register(LifecycleOwner owner, Object key, Attacher attacher) {
+        Map<Object, Entry> entries = entriesByOwner.get(owner);
+        if (entries == null) {
+            entries = new HashMap<>();
+            entriesByOwner.put(owner, entries);
+        }
+        if (entries.containsKey(key)) {
+            Log.d(TAG, "Ignoring duplicate listener for " + key);
+            return false;
+        }
+        Entry entry = new Entry(owner, key, attacher);
+        entries.put(key, entry);
+        // Catches up with the owner's current state, so a started owner attaches right away
+        owner.getLifecycle().addObserver(entry);
+        return true;
+    }
+
+    public void unregister(LifecycleOwner owner, Object key) {
+        Map<Object, Entry> entries = entriesByOwner.get(owner);
+        Entry entry = entries != null ? entries.get(key) : null;
+        if (entry != null) {
+            owner.getLifecycle().removeObserver(entry);
+            entry.forget();
+        }
+    }
+
+    // Number of listeners currently attached to Firestore, across all owners
+    public int activeCount() {
+        return activeCount;
+    }
+
+    private class Entry implements DefaultLifecycleObserver {
+        private final LifecycleOwner owner;
+        private final Object key;
+        private final Attacher attacher;
+        private ListenerRegistration registration;
+
+        Entry(LifecycleOwner owner, Object key, Attacher attacher) {
+            this.owner = owner;
+            this.key = key;
+            this.attacher = attacher;
+        }
+
+        @Override
+        public void onStart(@NonNull LifecycleOwner lifecycleOwner) {
+            if (registration == null) {
+                registration = attacher.attach();
+                activeCount++;
+                Log.d(TAG, "Attached listener, " + activeCount + " active");
+            }
+        }
+
+        @Override
+        public void onStop(@NonNull LifecycleOwner lifecycleOwner) {
+            detach();
+        }
+
+        @Override
+        public void onDestroy(@NonNull LifecycleOwner lifecycleOwner) {
+            forget();
+        }
+
+        void forget() {
+            detach();
+            Map<Object, Entry> entries = entriesByOwner.get(owner);
+            if (entries != null) {
+                entries.remove(key);
+                if (entries.isEmpty()) {
+                    entriesByOwner.remove(owner);
+                }
+            }
+        }
+
+        private void detach() {
+            if (registration != null) {
+                registration.remove();
+                registration = null;
+                activeCount--;
+                Log.d(TAG, "Detached listener, " + activeCount + " active");
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.messenger.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Threads used by Firestore listeners: snapshots are deserialized and diffed on a single
+// background worker (so changes are processed in order), and only finished results are
+// posted back to the main thread.
+public class SnapshotDispatcher {
+    private static final ExecutorService BACKGROUND =
+        Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "snapshot-worker"));
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    public static Executor background() {
+        return BACKGROUND;
+    }
+
+    public static void postToMain(Runnable runnable) {
+        MAIN_HANDLER.post(runnable);
+    }
+}
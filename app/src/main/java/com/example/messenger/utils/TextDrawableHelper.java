@@ -5,42 +5,129 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 
+import java.util.List;
+import java.util.Locale;
+
+// Letter avatars: a colored circle with the first letter of a name, or for groups a circle
+// split between up to four members. Bitmaps are cached by what is drawn on them (letters,
+// colors, pixel size), so rows showing the same avatar share one bitmap and a scrolling list
+// stops allocating once its avatars are cached. Each call still returns its own Drawable,
+// as drawables carry per-view state. A cached bitmap may be on screen at any time, so evicted
+// ones are left to the garbage collector rather than drawn over. Main thread only.
 public class TextDrawableHelper {
+    private static final int AVATAR_SIZE_DP = 48;
+    private static final int MAX_GROUP_MEMBERS = 4;
+    private static final int[] COLORS = {
+        Color.parseColor("#F44336"), Color.parseColor("#E91E63"), Color.parseColor("#9C27B0"),
+        Color.parseColor("#3F51B5"), Color.parseColor("#03A9F4"), Color.parseColor("#009688"),
+        Color.parseColor("#4CAF50"), Color.parseColor("#FF9800"), Color.parseColor("#795548")
+    };
+
+    // Tile bounds (left, top, right, bottom as fractions of the size) for two, three and four members
+    private static final float[][][] TILES = {
+        {{0, 0, 0.5f, 1}, {0.5f, 0, 1, 1}},
+        {{0, 0, 0.5f, 1}, {0.5f, 0, 1, 0.5f}, {0.5f, 0.5f, 1, 1}},
+        {{0, 0, 0.5f, 0.5f}, {0.5f, 0, 1, 0.5f}, {0, 0.5f, 0.5f, 1}, {0.5f, 0.5f, 1, 1}}
+    };
+
+    private static final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private static final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private static final Path clipPath = new Path();
+    private static final LruCache<String, Bitmap> cache =
+        new LruCache<String, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 32, 8 * 1024 * 1024)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+
+    static {
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
     public static Drawable create(Context context, String name) {
-        int size = 120; // px, adjust as needed
-        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-
-        // Draw circle background
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setColor(getColorForName(name));
-        canvas.drawCircle(size / 2, size / 2, size / 2, paint);
-
-        // Draw first letter
-        paint.setColor(Color.WHITE);
-        paint.setTextSize(size / 2);
-        paint.setTextAlign(Paint.Align.CENTER);
-        Paint.FontMetrics fontMetrics = paint.getFontMetrics();
-        float x = size / 2;
-        float y = size / 2 - (fontMetrics.ascent + fontMetrics.descent) / 2;
-        String firstLetter = name != null && !name.isEmpty() ? name.substring(0, 1).toUpperCase() : "?";
-        canvas.drawText(firstLetter, x, y, paint);
+        int size = avatarSizePx(context);
+        String letter = firstLetter(name);
+        int color = getColorForName(name);
+        String key = letter + '|' + color + '|' + size;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+
+            // Draw circle background
+            fillPaint.setColor(color);
+            canvas.drawCircle(size / 2f, size / 2f, size / 2f, fillPaint);
 
+            // Draw first letter
+            drawLetter(canvas, letter, size / 2f, size / 2f, size / 2f);
+            cache.put(key, bitmap);
+        }
         return new BitmapDrawable(context.getResources(), bitmap);
     }
 
+    // Avatar for a group built from its members' names, in the order given
+    public static Drawable createGroup(Context context, List<String> memberNames) {
+        int count = Math.min(memberNames.size(), MAX_GROUP_MEMBERS);
+        if (count <= 1) {
+            return create(context, count == 1 ? memberNames.get(0) : null);
+        }
+        int size = avatarSizePx(context);
+        StringBuilder key = new StringBuilder("group|").append(size);
+        for (int i = 0; i < count; i++) {
+            String name = memberNames.get(i);
+            key.append('|').append(firstLetter(name)).append(getColorForName(name));
+        }
+        Bitmap bitmap = cache.get(key.toString());
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            clipPath.reset();
+            clipPath.addCircle(size / 2f, size / 2f, size / 2f, Path.Direction.CW);
+            canvas.clipPath(clipPath);
+
+            // Two members split the circle in halves; three get a half and two quarters; four get quarters
+            float[][] tiles = TILES[count - 2];
+            for (int i = 0; i < count; i++) {
+                float left = tiles[i][0] * size;
+                float top = tiles[i][1] * size;
+                float right = tiles[i][2] * size;
+                float bottom = tiles[i][3] * size;
+                String name = memberNames.get(i);
+                fillPaint.setColor(getColorForName(name));
+                canvas.drawRect(left, top, right, bottom, fillPaint);
+                drawLetter(canvas, firstLetter(name), (left + right) / 2f, (top + bottom) / 2f,
+                    Math.min(right - left, bottom - top) * 0.6f);
+            }
+            cache.put(key.toString(), bitmap);
+        }
+        return new BitmapDrawable(context.getResources(), bitmap);
+    }
+
+    private static void drawLetter(Canvas canvas, String letter, float centerX, float centerY, float textSize) {
+        textPaint.setTextSize(textSize);
+        Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+        canvas.drawText(letter, centerX, centerY - (fontMetrics.ascent + fontMetrics.descent) / 2, textPaint);
+    }
+
+    // Pixel size of every avatar this helper draws; photo requests use it too
+    public static int avatarSizePx(Context context) {
+        return Math.round(AVATAR_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    private static String firstLetter(String name) {
+        return name != null && !name.isEmpty() ? name.substring(0, 1).toUpperCase(Locale.getDefault()) : "?";
+    }
+
     // Simple color generator based on name hash
     private static int getColorForName(String name) {
-        int[] colors = {
-            Color.parseColor("#F44336"), Color.parseColor("#E91E63"), Color.parseColor("#9C27B0"),
-            Color.parseColor("#3F51B5"), Color.parseColor("#03A9F4"), Color.parseColor("#009688"),
-            Color.parseColor("#4CAF50"), Color.parseColor("#FF9800"), Color.parseColor("#795548")
-        };
-        int hash = name != null ? Math.abs(name.hashCode()) : 0;
-        return colors[hash % colors.length];
+        int hash = name != null ? name.hashCode() & Integer.MAX_VALUE : 0;
+        return COLORS[hash % COLORS.length];
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package com.example.messenger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.firebase.Timestamp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ChatListViewsTest {
+    private static final String ME = "me";
+
+    private ChatListViews views;
+
+    @Before
+    public void setUp() {
+        views = new ChatListViews(ME);
+    }
+
+    @Test
+    public void chatsAreOrderedNewestFirstWithTiesById() {
+        views.upsert(direct("b", "Bob", 10L));
+        views.upsert(direct("c", "Cara", 30L));
+        views.upsert(direct("a", "Ann", 10L));
+
+        assertEquals(Arrays.asList("c", "a", "b"), ids(ChatListViews.TAB_ALL));
+    }
+
+    @Test
+    public void chatsWithoutTimeGoLast() {
+        views.upsert(direct("a", "Ann", null));
+        views.upsert(direct("b", "Bob", 10L));
+
+        assertEquals(Arrays.asList("b", "a"), ids(ChatListViews.TAB_ALL));
+    }
+
+    @Test
+    public void updatedChatMovesToItsNewPlace() {
+        views.upsert(direct("a", "Ann", 10L));
+        views.upsert(direct("b", "Bob", 20L));
+        views.upsert(direct("c", "Cara", 30L));
+
+        views.upsert(direct("a", "Ann", 40L));
+
+        assertEquals(Arrays.asList("a", "c", "b"), ids(ChatListViews.TAB_ALL));
+    }
+
+    @Test
+    public void tabsHoldOnlyTheirChats() {
+        views.upsert(direct("a", "Ann", 10L));
+        views.upsert(group("g", "Team", 20L));
+        Chat favourite = direct("f", "Fay", 30L);
+        favourite.setFavourite(Collections.singletonList(ME));
+        views.upsert(favourite);
+
+        assertEquals(Arrays.asList("f", "g", "a"), ids(ChatListViews.TAB_ALL));
+        assertEquals(Collections.singletonList("g"), ids(ChatListViews.TAB_GROUPS));
+        assertEquals(Collections.singletonList("f"), ids(ChatListViews.TAB_FAVOURITES));
+    }
+
+    @Test
+    public void unfavouritedChatLeavesTheFavouritesTab() {
+        Chat favourite = direct("f", "Fay", 30L);
+        favourite.setFavourite(Collections.singletonList(ME));
+        views.upsert(favourite);
+
+        views.upsert(direct("f", "Fay", 30L));
+
+        assertEquals(Collections.emptyList(), ids(ChatListViews.TAB_FAVOURITES));
+        assertEquals(Collections.singletonList("f"), ids(ChatListViews.TAB_ALL));
+    }
+
+    @Test
+    public void removedChatLeavesEveryTab() {
+        views.upsert(group("g", "Team", 20L));
+        views.upsert(direct("a", "Ann", 10L));
+
+        views.remove("g");
+
+        assertEquals(Collections.singletonList("a"), ids(ChatListViews.TAB_ALL));
+        assertEquals(Collections.emptyList(), ids(ChatListViews.TAB_GROUPS));
+    }
+
+    @Test
+    public void queryFiltersEveryTabAndKeepsOrder() {
+        views.upsert(direct("a", "Ann Lee", 10L));
+        views.upsert(group("g", "Lee family", 30L));
+        views.upsert(direct("b", "Bob", 20L));
+
+        views.setQuery("lee");
+
+        assertEquals(Arrays.asList("g", "a"), ids(ChatListViews.TAB_ALL));
+        assertEquals(Collections.singletonList("g"), ids(ChatListViews.TAB_GROUPS));
+
+        views.setQuery("");
+        assertEquals(Arrays.asList("g", "b", "a"), ids(ChatListViews.TAB_ALL));
+    }
+
+    @Test
+    public void unchangedTabsArePublishedAsTheSameList() {
+        views.upsert(direct("a", "Ann", 10L));
+        List<ChatListItem> groups = views.publish().get(ChatListViews.TAB_GROUPS);
+
+        views.upsert(direct("b", "Bob", 20L));
+
+        assertSame(groups, views.publish().get(ChatListViews.TAB_GROUPS));
+    }
+
+    private List<String> ids(String tab) {
+        List<String> ids = new ArrayList<>();
+        for (ChatListItem item : views.publish().get(tab)) {
+            ids.add(item.chatId);
+        }
+        return ids;
+    }
+
+    private static Chat direct(String id, String otherName, Long seconds) {
+        Chat chat = new Chat(Arrays.asList(ME, "user_" + id), "hi", seconds != null ? new Timestamp(seconds, 0) : null);
+        chat.setId(id);
+        chat.setOtherUserName(otherName);
+        return chat;
+    }
+
+    private static Chat group(String id, String name, Long seconds) {
+        Chat chat = new Chat(Arrays.asList(ME, "x", "y"), "hi", seconds != null ? new Timestamp(seconds, 0) : null, true, name);
+        chat.setId(id);
+        return chat;
+    }
+}
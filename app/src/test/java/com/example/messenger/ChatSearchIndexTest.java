@@ -0,0 +1,73 @@
+package com.example.messenger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class ChatSearchIndexTest {
+    private ChatSearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ChatSearchIndex();
+        index.put("1", "José Álvarez");
+        index.put("2", "Joanna Smith");
+        index.put("3", "Weekend  Hiking   Group");
+    }
+
+    @Test
+    public void normalizeFoldsCaseDiacriticsAndSpaces() {
+        assertEquals("jose alvarez", ChatSearchIndex.normalize("  José   ÁLVAREZ "));
+        assertEquals("", ChatSearchIndex.normalize(null));
+    }
+
+    @Test
+    public void emptyQueryMatchesEverything() {
+        assertNull(index.search(""));
+        assertNull(index.search("   "));
+    }
+
+    @Test
+    public void shortQueryMatchesWordPrefixes() {
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), index.search("jo"));
+        assertEquals(Collections.singleton("1"), index.search("Á"));
+        // Short queries do not match inside a word
+        assertEquals(Collections.emptySet(), index.search("se"));
+    }
+
+    @Test
+    public void longerQueryMatchesAnywhereInTheName() {
+        assertEquals(Collections.singleton("1"), index.search("varez"));
+        assertEquals(Collections.singleton("3"), index.search("king gro"));
+        assertEquals(Collections.singleton("1"), index.search("JOSE"));
+    }
+
+    @Test
+    public void allTrigramsPresentButNotAdjacentIsNoMatch() {
+        index.put("4", "abcx bcd");
+
+        assertEquals(Collections.emptySet(), index.search("abcd"));
+    }
+
+    @Test
+    public void renameReplacesTheOldName() {
+        index.put("2", "Anna Brown");
+
+        assertEquals(Collections.emptySet(), index.search("joanna"));
+        assertEquals(Collections.singleton("2"), index.search("brown"));
+    }
+
+    @Test
+    public void removedChatIsNotFound() {
+        index.remove("1");
+
+        assertEquals(Collections.emptySet(), index.search("alvarez"));
+        assertEquals(Collections.singleton("2"), index.search("jo"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.messenger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.Timestamp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ChatSummaryCoalescerTest {
+    private static final List<String> PARTICIPANTS = Arrays.asList("me", "ann", "bob");
+
+    @Test
+    public void newestMessageProvidesThePreview() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, PARTICIPANTS);
+        summary.merge("me", "m2", "second", new Timestamp(20, 0), 1, PARTICIPANTS);
+
+        assertEquals("m2", summary.messageId);
+        assertEquals("second", summary.text);
+        assertEquals(new Timestamp(20, 0), summary.time);
+    }
+
+    @Test
+    public void olderBatchReportedLateDoesNotReplaceThePreview() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m2", "second", new Timestamp(20, 0), 1, PARTICIPANTS);
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, PARTICIPANTS);
+
+        assertEquals("second", summary.text);
+        assertEquals(new Timestamp(20, 0), summary.time);
+        assertEquals(2, summary.messages);
+    }
+
+    @Test
+    public void messageWithoutKnownTimeCountsAsNewest() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, PARTICIPANTS);
+        summary.merge("me", "m2", "second", null, 1, PARTICIPANTS);
+
+        assertEquals("second", summary.text);
+        assertNull(summary.time);
+    }
+
+    @Test
+    public void unreadIncrementsAddUpForEveryoneButTheSender() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 2, PARTICIPANTS);
+        summary.merge("me", "m2", "second", new Timestamp(20, 0), 3, PARTICIPANTS);
+
+        assertEquals(Long.valueOf(5), summary.unread.get("ann"));
+        assertEquals(Long.valueOf(5), summary.unread.get("bob"));
+        assertFalse(summary.unread.containsKey("me"));
+        assertEquals(5, summary.messages);
+    }
+
+    @Test
+    public void unknownParticipantsOnlyCountMessages() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, null);
+
+        assertTrue(summary.unread.isEmpty());
+        assertEquals(1, summary.messages);
+    }
+
+    @Test
+    public void deletingThePreviewMessageDropsOnlyThePreview() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, PARTICIPANTS);
+
+        assertFalse(summary.forgetPreview("other"));
+        assertEquals("first", summary.text);
+
+        assertTrue(summary.forgetPreview("m1"));
+        assertNull(summary.text);
+        assertNull(summary.time);
+        assertEquals(Long.valueOf(1), summary.unread.get("ann"));
+    }
+
+    @Test
+    public void laterMessageRestoresAPreviewAfterADelete() {
+        ChatSummaryCoalescer.Pending summary = new ChatSummaryCoalescer.Pending();
+        summary.merge("me", "m1", "first", new Timestamp(10, 0), 1, PARTICIPANTS);
+        summary.forgetPreview("m1");
+
+        summary.merge("me", "m2", "second", new Timestamp(5, 0), 1, PARTICIPANTS);
+
+        assertEquals("second", summary.text);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.messenger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class MessageSearchIndexTest {
+
+    @Test
+    public void everyWordMustMatchAndTheLastIsAPrefix() {
+        assertEquals("\"see\" \"you\" \"tomor*\"", MessageSearchIndex.toMatchExpression("  see you, tomor"));
+    }
+
+    @Test
+    public void operatorWordsAreMatchedLiterally() {
+        assertEquals("\"see\" \"you\" \"OR\" \"me*\"", MessageSearchIndex.toMatchExpression("see you OR me"));
+        assertEquals("\"NOT\" \"now*\"", MessageSearchIndex.toMatchExpression("NOT now"));
+    }
+
+    @Test
+    public void queryWithoutWordsMatchesNothing() {
+        assertNull(MessageSearchIndex.toMatchExpression(null));
+        assertNull(MessageSearchIndex.toMatchExpression(" ?! "));
+    }
+
+    @Test
+    public void moreHitsScoreHigher() {
+        assertTrue(score(100, 10, 10, 3, 5) > score(100, 10, 10, 1, 5));
+    }
+
+    @Test
+    public void shorterMessagesScoreHigherForTheSameHits() {
+        assertTrue(score(100, 10, 5, 1, 5) > score(100, 10, 40, 1, 5));
+    }
+
+    @Test
+    public void rarerTermsScoreHigher() {
+        assertTrue(score(100, 10, 10, 1, 2) > score(100, 10, 10, 1, 50));
+    }
+
+    @Test
+    public void termInEveryRowStillScoresAboveZero() {
+        assertTrue(score(100, 10, 10, 1, 100) > 0);
+    }
+
+    @Test
+    public void phrasesAddUp() {
+        double first = score(100, 10, 10, 1, 5);
+        double both = MessageSearchIndex.bm25(matchinfo(100, 10, 10, new int[][] {{1, 1, 5}, {1, 1, 5}}));
+        assertEquals(2 * first, both, 1e-9);
+    }
+
+    // Score of a single-phrase query; hits in all rows are not used by the ranking
+    private static double score(int rows, int averageLength, int length, int hitsInRow, int rowsWithHits) {
+        return MessageSearchIndex.bm25(matchinfo(rows, averageLength, length, new int[][] {{hitsInRow, hitsInRow, rowsWithHits}}));
+    }
+
+    // matchinfo 'pnalx' for one column, in the byte order SQLite writes it
+    private static byte[] matchinfo(int rows, int averageLength, int length, int[][] phrases) {
+        ByteBuffer buffer = ByteBuffer.allocate((4 + phrases.length * 3) * 4).order(ByteOrder.nativeOrder());
+        buffer.putInt(phrases.length).putInt(rows).putInt(averageLength).putInt(length);
+        for (int[] phrase : phrases) {
+            buffer.putInt(phrase[0]).putInt(phrase[1]).putInt(phrase[2]);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.messenger;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.google.firebase.Timestamp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MessageStoreTest {
+    private MessageStore store;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        store = new MessageStore();
+        events = new ArrayList<>();
+        store.setCallback(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("insert " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("remove " + position + "+" + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                events.add("move " + fromPosition + ">" + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                events.add("change " + position + "+" + count);
+            }
+        });
+    }
+
+    @Test
+    public void olderPageIsInsertedAsOneRange() {
+        store.addAll(Arrays.asList(message("c", 30), message("d", 40)));
+        events.clear();
+
+        store.addAll(Arrays.asList(message("b", 20), message("a", 10)));
+
+        assertEquals(Arrays.asList("insert 0+2"), events);
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void newerPageIsInsertedAsOneRangeAtTheEnd() {
+        store.addAll(Arrays.asList(message("a", 10), message("b", 20)));
+        events.clear();
+
+        store.addAll(Arrays.asList(message("d", 40), message("c", 30)));
+
+        assertEquals(Arrays.asList("insert 2+2"), events);
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void interleavedPageFallsBackToSingleInserts() {
+        store.addAll(Arrays.asList(message("a", 10), message("c", 30)));
+        events.clear();
+
+        store.addAll(Arrays.asList(message("b", 20), message("d", 40)));
+
+        assertEquals(Arrays.asList("insert 1+1", "insert 3+1"), events);
+        assertOrder("a", "b", "c", "d");
+    }
+
+    @Test
+    public void equalTimestampsAreOrderedById() {
+        store.upsert(message("b", 10));
+        store.upsert(message("a", 10));
+
+        assertOrder("a", "b");
+    }
+
+    @Test
+    public void pendingMessagesSortLast() {
+        store.upsert(message("z", 10));
+        store.upsert(pending("a"));
+        store.upsert(message("y", 20));
+
+        assertOrder("z", "y", "a");
+    }
+
+    @Test
+    public void upsertWithNewTimestampMovesAndChanges() {
+        store.addAll(Arrays.asList(message("a", 10), message("b", 20), message("c", 30)));
+        events.clear();
+
+        int index = store.upsert(message("a", 40));
+
+        assertEquals(2, index);
+        assertEquals(Arrays.asList("move 0>2", "change 2+1"), events);
+        assertOrder("b", "c", "a");
+    }
+
+    @Test
+    public void upsertInPlaceOnlyChanges() {
+        store.addAll(Arrays.asList(message("a", 10), message("b", 20)));
+        events.clear();
+
+        store.upsert(message("b", 20));
+
+        assertEquals(Arrays.asList("change 1+1"), events);
+    }
+
+    @Test
+    public void confirmedEchoMovesIntoPlace() {
+        store.addAll(Arrays.asList(message("a", 10), message("c", 30)));
+        store.upsert(pending("b"));
+        events.clear();
+
+        store.upsert(message("b", 20));
+
+        assertEquals(Arrays.asList("move 2>1", "change 1+1"), events);
+        assertOrder("a", "b", "c");
+    }
+
+    @Test
+    public void removeReportsPosition() {
+        store.addAll(Arrays.asList(message("a", 10), message("b", 20)));
+        events.clear();
+
+        assertEquals(1, store.remove("b"));
+        assertEquals(-1, store.remove("b"));
+        assertEquals(Arrays.asList("remove 1+1"), events);
+        assertOrder("a");
+    }
+
+    private void assertOrder(String... ids) {
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            actual.add(store.get(i).getId());
+            assertEquals(i, store.indexOf(store.get(i).getId()));
+        }
+        assertEquals(Arrays.asList(ids), actual);
+    }
+
+    private static Message message(String id, long seconds) {
+        Message message = new Message("sender", "text " + id, new Timestamp(seconds, 0));
+        message.setId(id);
+        return message;
+    }
+
+    private static Message pending(String id) {
+        Message message = new Message("sender", "text " + id, null);
+        message.setId(id);
+        message.setPending(true);
+        return message;
+    }
+}